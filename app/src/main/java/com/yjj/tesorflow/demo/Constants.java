@@ -9,6 +9,11 @@ public class Constants {
     public static final String MODEL_FILE_NAME_POSTFIX = ".tflite";
     public static final String TXT_FILE_NAME_POSTFIX = ".txt";
     public static final String INDEX_NAME = "index.in";
+    public static final int SAMPLE_RATE = 16000;
+    public static final int SAMPLE_DURATION_MS = 1000;
+    public static final int RECORDING_LENGTH = SAMPLE_RATE * SAMPLE_DURATION_MS / 1000;
+    public static final String MODEL_ID = "conv_actions";
+    public static final int MODEL_VERSION = 1;
     public static final String MODEL_URL =
         "http://storage.googleapis.com/download.tensorflow.org/models/tflite/conv_actions_tflite.zip";
 }
@@ -2,17 +2,43 @@ package com.yjj.tesorflow.demo;
 
 import android.app.Application;
 
-import com.liulishuo.filedownloader.FileDownloader;
+import com.yjj.tesorflow.demo.inference.ModelRegistry;
+import com.yjj.tesorflow.demo.inference.ModelSpec;
+import com.yjj.tesorflow.demo.utils.ExecutorUtils;
+import com.yjj.tesorflow.demo.utils.ModelDiskCache;
 import com.yjj.tesorflow.demo.utils.TensorModelLoader;
 
 /**
  * created by yangjianjun on 2019/5/1
  */
 public class DemoApplication extends Application {
+    private static long startNanos;
+    private static ModelRegistry modelRegistry;
+
     @Override
     public void onCreate() {
+        startNanos = System.nanoTime();
         super.onCreate();
-        FileDownloader.init(this);
+        modelRegistry = new ModelRegistry(this, Constants.SAMPLE_RATE, Constants.RECORDING_LENGTH,
+            ModelRegistry.DEFAULT_MAX_MAPPED_BYTES);
+        modelRegistry.register(new ModelSpec(Constants.MODEL_ID, Constants.MODEL_VERSION, Constants.MODEL_URL));
+        // Map the model and build its interpreter while the UI inflates and permissions are checked.
+        modelRegistry.preload(Constants.MODEL_ID, Constants.MODEL_VERSION);
         new TensorModelLoader().load(this);
+        ExecutorUtils.executeIo(ExecutorUtils.PRIORITY_LOW, () -> ModelDiskCache.getInstance(this).trim());
+    }
+
+    /**
+     * 进程内共享的模型注册表
+     */
+    public static ModelRegistry getModelRegistry() {
+        return modelRegistry;
+    }
+
+    /**
+     * {@link System#nanoTime()} at application start
+     */
+    public static long getStartNanos() {
+        return startNanos;
     }
 }
@@ -16,16 +16,19 @@
 
 package com.yjj.tesorflow.demo;
 
-import android.util.Log;
-import android.util.Pair;
+import com.yjj.tesorflow.demo.utils.LabelTable;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Deque;
 import java.util.List;
 
-/** Reads in results from an instantaneous audio recognition model and smoothes them over time. */
+/**
+ * Reads in results from an instantaneous audio recognition model and smoothes them over time.
+ *
+ * <p>Each label can have its own detection settings, taken from the {@link LabelTable}. A label
+ * fires once its average rises above its on threshold, and stays active until the average drops
+ * below its off threshold, so a score hovering around one value can't flap. Every result also
+ * carries the top K labels, picked by quickselect in time linear in the label count.
+ */
 public class RecognizeCommands {
   // Configuration settings.
   private List<String> labels = new ArrayList<String>();
@@ -34,16 +37,36 @@ public class RecognizeCommands {
   private int suppressionMs;
   private int minimumCount;
   private long minimumTimeBetweenSamplesMs;
+  // Per-label detection settings, resolved against the defaults above.
+  private float[] onThresholds;
+  private float[] offThresholds;
+  private int[] suppressionsMs;
+  private int topK = DEFAULT_TOP_K;
 
-  // Working variables.
-  private Deque<Pair<Long, float[]>> previousResults = new ArrayDeque<Pair<Long, float[]>>();
+  // Working variables. The results inside the averaging window are kept in a preallocated ring
+  // (one timestamp and one row of scores per slot) together with running per-label sums, so a
+  // steady-state call only touches primitive arrays and never allocates.
+  private long[] previousTimes;
+  private float[] previousScores;
+  private double[] runningSums;
+  private int ringCapacity;
+  private int ringHead;
+  private int ringSize;
+  private final RecognitionResult result = new RecognitionResult(SILENCE_LABEL, 0.0f, false);
   private String previousTopLabel;
+  private int previousTopIndex;
+  private int silenceIndex;
   private int labelsCount;
   private long previousTopLabelTime;
   private float previousTopLabelScore;
+  // The label that fired last and hasn't dropped below its off threshold since, or -1.
+  private int activeIndex;
+  // Label indices, reordered in place by the top-K selection.
+  private int[] order;
 
-  private static final String SILENCE_LABEL = "_silence_";
-  private static final long MINIMUM_TIME_FRACTION = 4;
+  public static final String SILENCE_LABEL = "_silence_";
+  private static final int DEFAULT_RING_CAPACITY = 64;
+  public static final int DEFAULT_TOP_K = 3;
 
   public RecognizeCommands(
       List<String> inLabels,
@@ -52,53 +75,150 @@ public class RecognizeCommands {
       int inSuppressionMS,
       int inMinimumCount,
       long inMinimumTimeBetweenSamplesMS) {
-    labels = inLabels;
+    this(
+        inLabels,
+        null,
+        inAverageWindowDurationMs,
+        inDetectionThreshold,
+        inSuppressionMS,
+        inMinimumCount,
+        inMinimumTimeBetweenSamplesMS);
+  }
+
+  /**
+   * Takes the labels and any per-label settings from {@code table}; {@code inDetectionThreshold}
+   * and {@code inSuppressionMS} are the defaults for labels without their own.
+   */
+  public RecognizeCommands(
+      LabelTable table,
+      long inAverageWindowDurationMs,
+      float inDetectionThreshold,
+      int inSuppressionMS,
+      int inMinimumCount,
+      long inMinimumTimeBetweenSamplesMS) {
+    this(
+        table.getLabels(),
+        table,
+        inAverageWindowDurationMs,
+        inDetectionThreshold,
+        inSuppressionMS,
+        inMinimumCount,
+        inMinimumTimeBetweenSamplesMS);
+  }
+
+  private RecognizeCommands(
+      List<String> inLabels,
+      LabelTable table,
+      long inAverageWindowDurationMs,
+      float inDetectionThreshold,
+      int inSuppressionMS,
+      int inMinimumCount,
+      long inMinimumTimeBetweenSamplesMS) {
     averageWindowDurationMs = inAverageWindowDurationMs;
     detectionThreshold = inDetectionThreshold;
     suppressionMs = inSuppressionMS;
     minimumCount = inMinimumCount;
-    labelsCount = inLabels.size();
     previousTopLabel = SILENCE_LABEL;
     previousTopLabelTime = Long.MIN_VALUE;
     previousTopLabelScore = 0.0f;
     minimumTimeBetweenSamplesMs = inMinimumTimeBetweenSamplesMS;
+    result.allocateTop(topK);
+    setLabels(inLabels, table);
   }
 
   public void update(List<String> labels) {
-    this.labels = labels;
-    labelsCount = labels.size();
+    setLabels(labels, null);
   }
-  /** Holds information about what's been recognized. */
-  public static class RecognitionResult {
-    public final String foundCommand;
-    public final float score;
-    public final boolean isNewCommand;
 
-    public RecognitionResult(String inFoundCommand, float inScore, boolean inIsNewCommand) {
-      foundCommand = inFoundCommand;
-      score = inScore;
-      isNewCommand = inIsNewCommand;
+  /** Switches to another model's labels and settings, dropping the results averaged so far. */
+  public void update(LabelTable table) {
+    setLabels(table.getLabels(), table);
+  }
+
+  private void setLabels(List<String> inLabels, LabelTable table) {
+    labels = inLabels;
+    labelsCount = inLabels.size();
+    silenceIndex = inLabels.indexOf(SILENCE_LABEL);
+    previousTopIndex = inLabels.indexOf(previousTopLabel);
+    onThresholds = new float[labelsCount];
+    offThresholds = new float[labelsCount];
+    suppressionsMs = new int[labelsCount];
+    for (int i = 0; i < labelsCount; ++i) {
+      float on = table == null ? detectionThreshold : table.getOnThreshold(i, detectionThreshold);
+      // Without an off threshold there is no hysteresis band; the label re-arms below its on
+      // threshold.
+      float off = table == null ? on : table.getOffThreshold(i, on);
+      onThresholds[i] = on;
+      offThresholds[i] = Math.min(off, on);
+      suppressionsMs[i] = table == null ? suppressionMs : table.getSuppressionMs(i, suppressionMs);
     }
+    order = new int[labelsCount];
+    activeIndex = -1;
+    allocateRing();
   }
 
-  private static class ScoreForSorting implements Comparable<ScoreForSorting> {
-    public final float score;
-    public final int index;
+  /**
+   * Number of candidates each result carries in {@link RecognitionResult#topIndices}. Meant to stay
+   * small next to the label count, since the chosen K are sorted by insertion.
+   */
+  public void setTopK(int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("top K must be positive: " + k);
+    }
+    topK = k;
+    result.allocateTop(k);
+  }
 
-    public ScoreForSorting(float inScore, int inIndex) {
-      score = inScore;
-      index = inIndex;
+  /**
+   * Sizes the ring for the most results that can be inside the averaging window at once. Results
+   * arriving faster than minimumTimeBetweenSamplesMs are dropped, which bounds the count.
+   */
+  private void allocateRing() {
+    if (minimumTimeBetweenSamplesMs > 0) {
+      ringCapacity = (int) (averageWindowDurationMs / minimumTimeBetweenSamplesMs) + 2;
+    } else {
+      ringCapacity = DEFAULT_RING_CAPACITY;
     }
+    ringCapacity = Math.max(ringCapacity, minimumCount + 1);
+    previousTimes = new long[ringCapacity];
+    previousScores = new float[ringCapacity * labelsCount];
+    runningSums = new double[labelsCount];
+    ringHead = 0;
+    ringSize = 0;
+  }
 
-    @Override
-    public int compareTo(ScoreForSorting other) {
-      if (this.score > other.score) {
-        return -1;
-      } else if (this.score < other.score) {
-        return 1;
-      } else {
-        return 0;
-      }
+  /**
+   * Holds information about what's been recognized. The instance returned by {@link
+   * #processLatestResults} is reused, so copy out the fields before handing them to another thread.
+   */
+  public static class RecognitionResult {
+    public String foundCommand;
+    // Index of foundCommand in the labels, or -1 for the initial silence of a model without a
+    // silence label. Lets callers map a result without comparing strings.
+    public int labelIndex;
+    public float score;
+    public boolean isNewCommand;
+    // The best topCount labels of the window, best first, with their average scores. topCount is
+    // 0 until the window holds enough results, and the arrays are reused between calls.
+    public int[] topIndices = new int[0];
+    public float[] topScores = new float[0];
+    public int topCount;
+
+    public RecognitionResult(String inFoundCommand, float inScore, boolean inIsNewCommand) {
+      set(inFoundCommand, -1, inScore, inIsNewCommand);
+    }
+
+    void allocateTop(int k) {
+      topIndices = new int[k];
+      topScores = new float[k];
+      topCount = 0;
+    }
+
+    void set(String inFoundCommand, int inLabelIndex, float inScore, boolean inIsNewCommand) {
+      foundCommand = inFoundCommand;
+      labelIndex = inLabelIndex;
+      score = inScore;
+      isNewCommand = inIsNewCommand;
     }
   }
 
@@ -111,91 +231,170 @@ public class RecognizeCommands {
               + currentResults.length);
     }
 
-    if ((!previousResults.isEmpty()) && (currentTimeMS < previousResults.getFirst().first)) {
+    final long mostRecentTime =
+        ringSize > 0 ? previousTimes[(ringHead + ringSize - 1) % ringCapacity] : Long.MIN_VALUE;
+    if ((ringSize > 0) && (currentTimeMS < mostRecentTime)) {
       throw new RuntimeException(
           "You must feed results in increasing time order, but received a timestamp of "
               + currentTimeMS
               + " that was earlier than the previous one of "
-              + previousResults.getFirst().first);
+              + mostRecentTime);
     }
 
-    int howManyResults = previousResults.size();
     // Ignore any results that are coming in too frequently.
-    if (howManyResults > 1) {
-      final long timeSinceMostRecent = currentTimeMS - previousResults.getLast().first;
+    if (ringSize > 1) {
+      final long timeSinceMostRecent = currentTimeMS - mostRecentTime;
       if (timeSinceMostRecent < minimumTimeBetweenSamplesMs) {
-        return new RecognitionResult(previousTopLabel, previousTopLabelScore, false);
+        result.set(previousTopLabel, previousTopIndex, previousTopLabelScore, false);
+        return result;
       }
     }
 
-    // Add the latest results to the head of the queue.
-    previousResults.addLast(new Pair<Long, float[]>(currentTimeMS, currentResults));
+    // Add the latest results to the tail of the ring, making room first if it is full.
+    if (ringSize == ringCapacity) {
+      removeOldest();
+    }
+    final int tail = (ringHead + ringSize) % ringCapacity;
+    previousTimes[tail] = currentTimeMS;
+    System.arraycopy(currentResults, 0, previousScores, tail * labelsCount, labelsCount);
+    for (int i = 0; i < labelsCount; ++i) {
+      runningSums[i] += currentResults[i];
+    }
+    ++ringSize;
 
     // Prune any earlier results that are too old for the averaging window.
     final long timeLimit = currentTimeMS - averageWindowDurationMs;
-    while (previousResults.getFirst().first < timeLimit) {
-      previousResults.removeFirst();
+    while (previousTimes[ringHead] < timeLimit) {
+      removeOldest();
     }
 
-    howManyResults = previousResults.size();
-
     // If there are too few results, assume the result will be unreliable and
     // bail.
-    final long earliestTime = previousResults.getFirst().first;
-    final long samplesDuration = currentTimeMS - earliestTime;
-
-    Log.v("Number of Results: ", String.valueOf(howManyResults));
-
-    Log.v(
-        "Duration < WD/FRAC?",
-        String.valueOf((samplesDuration < (averageWindowDurationMs / MINIMUM_TIME_FRACTION))));
-
-    if ((howManyResults < minimumCount)
-    //        || (samplesDuration < (averageWindowDurationMs / MINIMUM_TIME_FRACTION))
-    ) {
-      Log.v("RecognizeResult", "Too few results");
-      return new RecognitionResult(previousTopLabel, 0.0f, false);
-    }
-
-    // Calculate the average score across all the results in the window.
-    float[] averageScores = new float[labelsCount];
-    for (Pair<Long, float[]> previousResult : previousResults) {
-      final float[] scoresTensor = previousResult.second;
-      int i = 0;
-      while (i < scoresTensor.length) {
-        averageScores[i] += scoresTensor[i] / howManyResults;
-        ++i;
-      }
-    }
-
-    // Sort the averaged results in descending score order.
-    ScoreForSorting[] sortedAverageScores = new ScoreForSorting[labelsCount];
-    for (int i = 0; i < labelsCount; ++i) {
-      sortedAverageScores[i] = new ScoreForSorting(averageScores[i], i);
+    if (ringSize < minimumCount) {
+      result.set(previousTopLabel, previousTopIndex, 0.0f, false);
+      result.topCount = 0;
+      return result;
     }
-    Arrays.sort(sortedAverageScores);
 
-    // See if the latest top score is enough to trigger a detection.
-    final int currentTopIndex = sortedAverageScores[0].index;
+    // The average of the window is the running sum over the result count. Ties keep the lowest
+    // index, as the previous stable sort did.
+    selectTop();
+    final int currentTopIndex = result.topIndices[0];
     final String currentTopLabel = labels.get(currentTopIndex);
-    final float currentTopScore = sortedAverageScores[0].score;
+    final float currentTopScore = result.topScores[0];
+    // The active label re-arms once its own average falls below its off threshold.
+    if ((activeIndex >= 0) && (runningSums[activeIndex] / ringSize < offThresholds[activeIndex])) {
+      activeIndex = -1;
+    }
     // If we've recently had another label trigger, assume one that occurs too
     // soon afterwards is a bad result.
     long timeSinceLastTop;
-    if (previousTopLabel.equals(SILENCE_LABEL) || (previousTopLabelTime == Long.MIN_VALUE)) {
+    if ((previousTopIndex == silenceIndex)
+        || (previousTopIndex < 0)
+        || (previousTopLabelTime == Long.MIN_VALUE)) {
       timeSinceLastTop = Long.MAX_VALUE;
     } else {
       timeSinceLastTop = currentTimeMS - previousTopLabelTime;
     }
+    final int suppression = previousTopIndex >= 0 ? suppressionsMs[previousTopIndex] : 0;
     boolean isNewCommand;
-    if ((currentTopScore > detectionThreshold) && (timeSinceLastTop > suppressionMs)) {
+    if ((currentTopScore > onThresholds[currentTopIndex])
+        && (currentTopIndex != activeIndex)
+        && (timeSinceLastTop > suppression)) {
       previousTopLabel = currentTopLabel;
+      previousTopIndex = currentTopIndex;
       previousTopLabelTime = currentTimeMS;
       previousTopLabelScore = currentTopScore;
+      activeIndex = currentTopIndex;
       isNewCommand = true;
     } else {
       isNewCommand = false;
     }
-    return new RecognitionResult(currentTopLabel, currentTopScore, isNewCommand);
+    result.set(currentTopLabel, currentTopIndex, currentTopScore, isNewCommand);
+    return result;
+  }
+
+  /**
+   * Puts the best min(topK, labelsCount) labels into the result, best first. Quickselect moves
+   * the K best label indices to the front of {@code order} in expected linear time, and only those
+   * K are then sorted, so large vocabularies never pay for a full sort.
+   */
+  private void selectTop() {
+    final int k = Math.min(topK, labelsCount);
+    for (int i = 0; i < labelsCount; ++i) {
+      order[i] = i;
+    }
+    int left = 0;
+    int right = labelsCount - 1;
+    while ((k < labelsCount) && (left < right)) {
+      final int pivot = partition(left, right, (left + right) >>> 1);
+      if (pivot == k - 1) {
+        break;
+      } else if (pivot < k - 1) {
+        left = pivot + 1;
+      } else {
+        right = pivot - 1;
+      }
+    }
+    for (int i = 1; i < k; ++i) {
+      final int index = order[i];
+      int j = i - 1;
+      while ((j >= 0) && ranksAbove(index, order[j])) {
+        order[j + 1] = order[j];
+        --j;
+      }
+      order[j + 1] = index;
+    }
+    for (int i = 0; i < k; ++i) {
+      result.topIndices[i] = order[i];
+      result.topScores[i] = (float) (runningSums[order[i]] / ringSize);
+    }
+    result.topCount = k;
+  }
+
+  /**
+   * Moves the labels ranking above the one at {@code pivotPosition} to its left, and returns where
+   * it ends up.
+   */
+  private int partition(int left, int right, int pivotPosition) {
+    final int pivot = order[pivotPosition];
+    order[pivotPosition] = order[right];
+    order[right] = pivot;
+    int store = left;
+    for (int i = left; i < right; ++i) {
+      if (ranksAbove(order[i], pivot)) {
+        final int swap = order[store];
+        order[store] = order[i];
+        order[i] = swap;
+        ++store;
+      }
+    }
+    order[right] = order[store];
+    order[store] = pivot;
+    return store;
+  }
+
+  /** Higher average first, then the lower index, so the ranking is total. */
+  private boolean ranksAbove(int a, int b) {
+    return (runningSums[a] > runningSums[b]) || ((runningSums[a] == runningSums[b]) && (a < b));
+  }
+
+  /**
+   * Drops the oldest result from the ring and takes its scores out of the running sums. The sums are
+   * doubles so the incremental add/subtract drift stays far below float resolution.
+   */
+  private void removeOldest() {
+    final int offset = ringHead * labelsCount;
+    for (int i = 0; i < labelsCount; ++i) {
+      runningSums[i] -= previousScores[offset + i];
+    }
+    ringHead = (ringHead + 1) % ringCapacity;
+    --ringSize;
+    if (ringSize == 0) {
+      // Nothing left to subtract from, so start again from exact zeros.
+      for (int i = 0; i < labelsCount; ++i) {
+        runningSums[i] = 0.0;
+      }
+    }
   }
 }
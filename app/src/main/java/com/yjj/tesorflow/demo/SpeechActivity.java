@@ -32,16 +32,15 @@ the RecognizeCommands helper class.
 package com.yjj.tesorflow.demo;
 
 import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Message;
-import android.util.Log;
+import android.os.IBinder;
 import android.view.View;
 import android.view.ViewTreeObserver;
 import android.widget.CompoundButton;
@@ -50,17 +49,17 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
-import com.yjj.tesorflow.demo.utils.ModelLoadListenerManager;
+import com.yjj.tesorflow.demo.event.EventBus;
+import com.yjj.tesorflow.demo.inference.InferenceEngine;
+import com.yjj.tesorflow.demo.inference.ModelSpec;
+import com.yjj.tesorflow.demo.recognition.RecognitionPipeline;
+import com.yjj.tesorflow.demo.recognition.RecognitionService;
+import com.yjj.tesorflow.demo.utils.LabelTable;
 import com.yjj.tesorflow.demo.utils.PermissionUtils;
-import com.yjj.tesorflow.demo.utils.TensorModelFileUtils;
+import com.yjj.tesorflow.demo.utils.PipelineMetrics;
 
-import org.tensorflow.lite.Interpreter;
-
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.widget.SwitchCompat;
@@ -68,45 +67,28 @@ import androidx.appcompat.widget.SwitchCompat;
 /**
  * An activity that listens for audio and then uses a TensorFlow model to detect particular classes,
  * by default a small set of action words.
+ * <p>
+ * The listening itself happens in {@link RecognitionService}; this screen binds to it while it is
+ * visible and renders the detections it publishes on the {@link EventBus}. The keep-listening switch
+ * moves the service to the foreground, so it goes on listening after the screen is gone.
  */
 public class SpeechActivity extends Activity implements View.OnClickListener, CompoundButton.OnCheckedChangeListener,
-    ModelLoadListenerManager.ModelLoadFinishListener {
-
-    // Constants that control the behavior of the recognition code and model
-    // settings. See the audio recognition tutorial for a detailed explanation of
-    // all these, but you should customize them to match your training settings if
-    // you are running your own model.
-    private static final int SAMPLE_RATE = 16000;
-    private static final int SAMPLE_DURATION_MS = 1000;
-    private static final int RECORDING_LENGTH = (int) (SAMPLE_RATE * SAMPLE_DURATION_MS / 1000);
-    private static final long AVERAGE_WINDOW_DURATION_MS = 1000;
-    private static final float DETECTION_THRESHOLD = 0.50f;
-    private static final int SUPPRESSION_MS = 1500;
-    private static final int MINIMUM_COUNT = 3;
-    private static final long MINIMUM_TIME_BETWEEN_SAMPLES_MS = 30;
-    private static final int WHAT_RECORD_START = 1;
-    private static final int WHAT_RECORD_STOP = 2;
-    private static final int WHAT_RECOGNIZE_START = 3;
-    private static final int WHAT_RECOGNIZE_STOP = 4;
+    RecognitionService.Client, EventBus.Subscriber {
+
+    private static final int SAMPLE_RATE = Constants.SAMPLE_RATE;
     // UI elements.
     private static final int REQUEST_RECORD_AUDIO = 13;
     private static final String LOG_TAG = SpeechActivity.class.getSimpleName();
+    private static final long HIGHLIGHT_DURATION_MS = 750;
+    private static final int EVENT_MASK = EventBus.maskOf(EventBus.TYPE_DETECTION, EventBus.TYPE_INFERENCE_TIME);
 
-    // Working variables.
-    short[] recordingBuffer = new short[RECORDING_LENGTH];
-    int recordingOffset = 0;
-    private volatile boolean shouldRecordContinue = false;
-    private volatile boolean shouldContinueRecognition = false;
-    private final ReentrantLock recordingBufferLock = new ReentrantLock();
-
-    private List<String> labels = new ArrayList<String>();
-    private List<String> displayedLabels = new ArrayList<>();
-    private RecognizeCommands recognizeCommands = null;
     private LinearLayout bottomSheetLayout;
     private LinearLayout gestureLayout;
     private BottomSheetBehavior sheetBehavior;
 
-    private Interpreter tfLite;
+    private RecognitionService recognitionService;
+    private boolean serviceBound = false;
+    private volatile RecognitionPipeline pipeline;
     private ImageView bottomSheetArrowImageView;
 
     private TextView yesTextView, noTextView, upTextView, downTextView, leftTextView, rightTextView, onTextView,
@@ -114,41 +96,46 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
     private TextView sampleRateTextView, inferenceTimeTextView;
     private ImageView plusImageView, minusImageView;
     private SwitchCompat apiSwitchCompat;
+    private SwitchCompat keepListeningSwitchCompat;
     private TextView threadsTextView;
-    private long lastProcessingTimeMs;
+    private TextView modelTextView;
     private Handler handler = new Handler();
     private TextView selectedTextView = null;
-    private HandlerThread backgroundThread;
-    private Handler backgroundHandler;
-    private boolean modelIsLoading = false;
-    private HandlerThread recordHandlerThread;
-    private HandlerThread recognizeHandlerThread;
-    private Handler recongnizeHander;
-
-    private Handler recordHandler;
-    private volatile boolean modelLoadSuccess = false;
+    private CharSequence selectedOriginalText;
+    private final Runnable clearHighlight = new Runnable() {
+        @Override
+        public void run() {
+            if (selectedTextView == null) {
+                return;
+            }
+            selectedTextView.setText(selectedOriginalText);
+            selectedTextView.setBackgroundResource(R.drawable.round_corner_text_bg_unselected);
+            selectedTextView.setTextColor(getResources().getColor(android.R.color.darker_gray));
+            selectedTextView = null;
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            recognitionService = ((RecognitionService.LocalBinder) binder).getService();
+            recognitionService.addClient(SpeechActivity.this);
+            keepListeningSwitchCompat.setChecked(recognitionService.isForeground());
+        }
 
-    @Override
-    public void onFinish() {
-        if (PermissionUtils.hasPermission(this, new String[] { android.Manifest.permission.RECORD_AUDIO })) {
-            loadModel();
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            recognitionService = null;
+            pipeline = null;
         }
-    }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         // Set up the UI.
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_speech);
-        // Set up an object to smooth recognition results to increase accuracy.
-        recognizeCommands =
-            new RecognizeCommands(labels, AVERAGE_WINDOW_DURATION_MS, DETECTION_THRESHOLD, SUPPRESSION_MS,
-                MINIMUM_COUNT, MINIMUM_TIME_BETWEEN_SAMPLES_MS);
-        ModelLoadListenerManager.getInstance().add(this);
-        if (PermissionUtils.hasPermission(this, new String[] { android.Manifest.permission.RECORD_AUDIO })) {
-            loadModel();
-        } else {
-            // Start the recording and recognition threads.
+        if (!PermissionUtils.hasPermission(this, new String[] { android.Manifest.permission.RECORD_AUDIO })) {
             requestMicrophonePermission();
         }
         sampleRateTextView = findViewById(R.id.sample_rate);
@@ -162,6 +149,8 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
         plusImageView = findViewById(R.id.plus);
         minusImageView = findViewById(R.id.minus);
         apiSwitchCompat = findViewById(R.id.api_info_switch);
+        modelTextView = findViewById(R.id.model);
+        keepListeningSwitchCompat = findViewById(R.id.keep_listening_switch);
 
         yesTextView = findViewById(R.id.yes);
         noTextView = findViewById(R.id.no);
@@ -175,6 +164,7 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
         goTextView = findViewById(R.id.go);
 
         apiSwitchCompat.setOnCheckedChangeListener(this);
+        keepListeningSwitchCompat.setOnCheckedChangeListener(this);
 
         ViewTreeObserver vto = gestureLayout.getViewTreeObserver();
         vto.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
@@ -216,46 +206,14 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
 
         plusImageView.setOnClickListener(this);
         minusImageView.setOnClickListener(this);
-
-        sampleRateTextView.setText(SAMPLE_RATE + " Hz");
-    }
-
-    private void loadModel() {
-        if (modelIsLoading) {
-            return;
-        }
-        if (tfLite != null) {
-            return;
+        if (DemoApplication.getModelRegistry().getSpecs().size() > 1) {
+            // Nothing to switch to with a single registered model.
+            findViewById(R.id.model_layout).setVisibility(View.VISIBLE);
+            findViewById(R.id.model_divider).setVisibility(View.VISIBLE);
+            modelTextView.setOnClickListener(this);
         }
-        modelIsLoading = true;
-        try {
-            TensorModelFileUtils.loadModelFile(this, (mappedByteBuffer, labels) -> {
-                modelIsLoading = false;
-                if (mappedByteBuffer == null) {
-                    return;
-                }
-                if (labels == null) {
-                    return;
-                }
-                recognizeCommands.update(labels);
-                SpeechActivity.this.labels = labels;
-                for (String line : labels) {
-                    if (line.charAt(0) != '_') {
-                        displayedLabels.add(line.substring(0, 1).toUpperCase() + line.substring(1));
-                    }
-                }
-                tfLite = new Interpreter(mappedByteBuffer);
-                tfLite.resizeInput(0, new int[] { RECORDING_LENGTH, 1 });
-                tfLite.resizeInput(1, new int[] { 1 });
-                if (!modelLoadSuccess) {
-                    startRecording();
-                    startRecognition();
-                    modelLoadSuccess = true;
-                }
-            });
-        } catch (Exception e) {
 
-        }
+        sampleRateTextView.setText(SAMPLE_RATE + " Hz");
     }
 
     private void requestMicrophonePermission() {
@@ -268,230 +226,112 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         if (requestCode == REQUEST_RECORD_AUDIO && grantResults.length > 0
             && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-            loadModel();
+            bindRecognitionService();
         }
     }
 
-    public void startRecording() {
-        if (shouldRecordContinue) {
+    private void bindRecognitionService() {
+        if (serviceBound) {
             return;
         }
-        if (recordHandlerThread == null) {
-            recordHandlerThread = new HandlerThread("recordThread");
-            recordHandlerThread.start();
-            recordHandler = new Handler(recordHandlerThread.getLooper()) {
-                @Override
-                public void handleMessage(Message msg) {
-                    if (msg.what == WHAT_RECORD_START) {
-                        record();
-                    }
-                }
-            };
-        }
-        if (recordHandler.hasMessages(WHAT_RECORD_START)) {
+        if (!PermissionUtils.hasPermission(this, new String[] { android.Manifest.permission.RECORD_AUDIO })) {
             return;
         }
-        shouldRecordContinue = true;
-        recordHandler.sendEmptyMessage(WHAT_RECORD_START);
-    }
-
-    public void stopRecording() {
-        if (shouldRecordContinue) {
-            shouldRecordContinue = false;
-        }
+        serviceBound = bindService(new Intent(this, RecognitionService.class), serviceConnection,
+            Context.BIND_AUTO_CREATE);
     }
 
-    private void record() {
-        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
-
-        // Estimate the buffer size we'll need for this device.
-        int bufferSize =
-            AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
-        if (bufferSize == AudioRecord.ERROR || bufferSize == AudioRecord.ERROR_BAD_VALUE) {
-            bufferSize = SAMPLE_RATE * 2;
-        }
-        short[] audioBuffer = new short[bufferSize / 2];
-
-        AudioRecord record =
-            new AudioRecord(MediaRecorder.AudioSource.DEFAULT, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
-                AudioFormat.ENCODING_PCM_16BIT, bufferSize);
-
-        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
-            Log.e(LOG_TAG, "Audio Record can't initialize!");
+    private void unbindRecognitionService() {
+        if (!serviceBound) {
             return;
         }
-
-        record.startRecording();
-
-        Log.v(LOG_TAG, "Start recording");
-
-        // Loop, gathering audio data and copying it to a round-robin buffer.
-        while (shouldRecordContinue) {
-            int numberRead = record.read(audioBuffer, 0, audioBuffer.length);
-            int maxLength = recordingBuffer.length;
-            int newRecordingOffset = recordingOffset + numberRead;
-            int secondCopyLength = Math.max(0, newRecordingOffset - maxLength);
-            int firstCopyLength = numberRead - secondCopyLength;
-            // We store off all the data for the recognition thread to access. The ML
-            // thread will copy out of this buffer into its own, while holding the
-            // lock, so this should be thread safe.
-            recordingBufferLock.lock();
-            try {
-                System.arraycopy(audioBuffer, 0, recordingBuffer, recordingOffset, firstCopyLength);
-                System.arraycopy(audioBuffer, firstCopyLength, recordingBuffer, 0, secondCopyLength);
-                recordingOffset = newRecordingOffset % maxLength;
-            } finally {
-                recordingBufferLock.unlock();
-            }
+        if (recognitionService != null) {
+            recognitionService.removeClient(this);
+            recognitionService = null;
         }
-
-        record.stop();
-        record.release();
+        unbindService(serviceConnection);
+        serviceBound = false;
+        pipeline = null;
     }
 
-    public synchronized void startRecognition() {
-        if (shouldContinueRecognition) {
-            return;
-        }
-        if (recognizeHandlerThread == null) {
-            recognizeHandlerThread = new HandlerThread("recognizeThread");
-            recognizeHandlerThread.start();
-            recongnizeHander = new Handler(recognizeHandlerThread.getLooper()) {
-                @Override
-                public void handleMessage(Message msg) {
-                    if (msg.what == WHAT_RECOGNIZE_START) {
-                        recognize();
-                    }
-                }
-            };
-        }
-        if (recongnizeHander.hasMessages(WHAT_RECOGNIZE_START)) {
-            return;
-        }
-        shouldContinueRecognition = true;
-        recongnizeHander.sendEmptyMessage(WHAT_RECOGNIZE_START);
+    @Override
+    public void onReady(RecognitionPipeline pipeline) {
+        this.pipeline = pipeline;
+        // Show what the tuner picked for this model and device; called again after a model switch.
+        InferenceEngine engine = pipeline.getEngine();
+        threadsTextView.setText(String.valueOf(engine.getNumThreads()));
+        apiSwitchCompat.setChecked(engine.isUseNNAPI());
+        modelTextView.setText(pipeline.getModel().getSpec().getKey());
     }
 
-    public synchronized void stopRecognition() {
-        if (shouldContinueRecognition) {
-            shouldContinueRecognition = false;
+    @Override
+    public void onEvent(EventBus.Event event) {
+        RecognitionPipeline current = pipeline;
+        if (current != null) {
+            current.getMetrics().record(PipelineMetrics.STAGE_UI_DISPATCH, System.nanoTime() - event.publishNanos);
+        }
+        if (event.type == EventBus.TYPE_INFERENCE_TIME) {
+            inferenceTimeTextView.setText(event.processingNanos / 1000000 + " ms");
+        } else if (event.type == EventBus.TYPE_DETECTION) {
+            showDetection(event.labelIndex, event.score);
         }
     }
 
-    private void recognize() {
-        if (tfLite == null) {
+    /**
+     * 高亮识别到的命令
+     */
+    private void showDetection(int labelIndex, float foundScore) {
+        RecognitionPipeline current = pipeline;
+        // Read from the pipeline each time, since a model switch replaces it.
+        LabelTable table = current == null ? null : current.getLabelTable();
+        if (table == null || labelIndex >= table.size() || table.isSpecial(labelIndex)) {
             return;
         }
-        Log.v(LOG_TAG, "Start recognition");
-
-        short[] inputBuffer = new short[RECORDING_LENGTH];
-        float[][] floatInputBuffer = new float[RECORDING_LENGTH][1];
-        float[][] outputScores = new float[1][labels.size()];
-        int[] sampleRateList = new int[] { SAMPLE_RATE };
-
-        // Loop, grabbing recorded data and running the recognition model on it.
-        while (shouldContinueRecognition) {
-            long startTime = System.currentTimeMillis();
-            // The recording thread places data in this round-robin buffer, so lock to
-            // make sure there's no writing happening and then copy it to our own
-            // local version.
-            recordingBufferLock.lock();
-            try {
-                int maxLength = recordingBuffer.length;
-                int firstCopyLength = maxLength - recordingOffset;
-                int secondCopyLength = recordingOffset;
-                System.arraycopy(recordingBuffer, recordingOffset, inputBuffer, 0, firstCopyLength);
-                System.arraycopy(recordingBuffer, 0, inputBuffer, firstCopyLength, secondCopyLength);
-            } finally {
-                recordingBufferLock.unlock();
-            }
-
-            // We need to feed in float values between -1.0f and 1.0f, so divide the
-            // signed 16-bit inputs.
-            for (int i = 0; i < RECORDING_LENGTH; ++i) {
-                floatInputBuffer[i][0] = inputBuffer[i] / 32767.0f;
-            }
-
-            Object[] inputArray = { floatInputBuffer, sampleRateList };
-            Map<Integer, Object> outputMap = new HashMap<>();
-            outputMap.put(0, outputScores);
-
-            // Run the model.
-            tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
-
-            // Use the smoother to figure out if we've had a real recognition event.
-            long currentTime = System.currentTimeMillis();
-            final RecognizeCommands.RecognitionResult result =
-                recognizeCommands.processLatestResults(outputScores[0], currentTime);
-            lastProcessingTimeMs = System.currentTimeMillis() - startTime;
-            runOnUiThread(() -> {
-                inferenceTimeTextView.setText(lastProcessingTimeMs + " ms");
-
-                // If we do have a new command, highlight the right list entry.
-                if (!result.foundCommand.startsWith("_") && result.isNewCommand) {
-                    int labelIndex = -1;
-                    for (int i = 0; i < labels.size(); ++i) {
-                        if (labels.get(i).equals(result.foundCommand)) {
-                            labelIndex = i;
-                        }
-                    }
-
-                    switch (labelIndex - 2) {
-                        case 0:
-                            selectedTextView = yesTextView;
-                            break;
-                        case 1:
-                            selectedTextView = noTextView;
-                            break;
-                        case 2:
-                            selectedTextView = upTextView;
-                            break;
-                        case 3:
-                            selectedTextView = downTextView;
-                            break;
-                        case 4:
-                            selectedTextView = leftTextView;
-                            break;
-                        case 5:
-                            selectedTextView = rightTextView;
-                            break;
-                        case 6:
-                            selectedTextView = onTextView;
-                            break;
-                        case 7:
-                            selectedTextView = offTextView;
-                            break;
-                        case 8:
-                            selectedTextView = stopTextView;
-                            break;
-                        case 9:
-                            selectedTextView = goTextView;
-                            break;
-                    }
-
-                    if (selectedTextView != null) {
-                        selectedTextView.setBackgroundResource(R.drawable.round_corner_text_bg_selected);
-                        final String score = Math.round(result.score * 100) + "%";
-                        selectedTextView.setText(selectedTextView.getText() + "\n" + score);
-                        selectedTextView.setTextColor(getResources().getColor(android.R.color.holo_orange_light));
-                        handler.postDelayed(() -> {
-                            String origionalString = selectedTextView.getText().toString().replace(score, "").trim();
-                            selectedTextView.setText(origionalString);
-                            selectedTextView.setBackgroundResource(R.drawable.round_corner_text_bg_unselected);
-                            selectedTextView.setTextColor(getResources().getColor(android.R.color.darker_gray));
-                        }, 750);
-                    }
-                }
-            });
-            try {
-                // We don't need to run too frequently, so snooze for a bit.
-                Thread.sleep(MINIMUM_TIME_BETWEEN_SAMPLES_MS);
-            } catch (InterruptedException e) {
-                // Ignore
-            }
+        TextView textView = null;
+        switch (labelIndex - 2) {
+            case 0:
+                textView = yesTextView;
+                break;
+            case 1:
+                textView = noTextView;
+                break;
+            case 2:
+                textView = upTextView;
+                break;
+            case 3:
+                textView = downTextView;
+                break;
+            case 4:
+                textView = leftTextView;
+                break;
+            case 5:
+                textView = rightTextView;
+                break;
+            case 6:
+                textView = onTextView;
+                break;
+            case 7:
+                textView = offTextView;
+                break;
+            case 8:
+                textView = stopTextView;
+                break;
+            case 9:
+                textView = goTextView;
+                break;
         }
-
-        Log.v(LOG_TAG, "End recognition");
+        if (textView == null) {
+            return;
+        }
+        // Restore whatever is still highlighted before marking the next one.
+        handler.removeCallbacks(clearHighlight);
+        clearHighlight.run();
+        selectedTextView = textView;
+        selectedOriginalText = textView.getText();
+        textView.setBackgroundResource(R.drawable.round_corner_text_bg_selected);
+        textView.setText(selectedOriginalText + "\n" + Math.round(foundScore * 100) + "%");
+        textView.setTextColor(getResources().getColor(android.R.color.holo_orange_light));
+        handler.postDelayed(clearHighlight, HIGHLIGHT_DURATION_MS);
     }
 
     @Override
@@ -501,8 +341,7 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
             int numThreads = Integer.parseInt(threads);
             numThreads++;
             threadsTextView.setText(String.valueOf(numThreads));
-            int finalNumThreads = numThreads;
-            backgroundHandler.post(() -> tfLite.setNumThreads(finalNumThreads));
+            setNumThreads(numThreads);
         } else if (v.getId() == R.id.minus) {
             String threads = threadsTextView.getText().toString().trim();
             int numThreads = Integer.parseInt(threads);
@@ -511,15 +350,53 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
             }
             numThreads--;
             threadsTextView.setText(String.valueOf(numThreads));
-            tfLite.setNumThreads(numThreads);
-            int finalNumThreads = numThreads;
-            backgroundHandler.post(() -> tfLite.setNumThreads(finalNumThreads));
+            setNumThreads(numThreads);
+        } else if (v.getId() == R.id.model) {
+            switchToNextModel();
+        }
+    }
+
+    /**
+     * 切换到下一个已注册的模型, 切换完成后{@link #onReady}刷新界面
+     */
+    private void switchToNextModel() {
+        RecognitionPipeline current = pipeline;
+        if (recognitionService == null || current == null) {
+            return;
+        }
+        List<ModelSpec> specs = DemoApplication.getModelRegistry().getSpecs();
+        Collections.sort(specs, (a, b) -> a.getKey().compareTo(b.getKey()));
+        int index = specs.indexOf(current.getModel().getSpec());
+        ModelSpec next = specs.get((index + 1) % specs.size());
+        if (next != current.getModel().getSpec()) {
+            modelTextView.setText(next.getKey() + "...");
+            recognitionService.switchModel(next.id, next.version);
+        }
+    }
+
+    private void setNumThreads(int numThreads) {
+        InferenceEngine engine = getEngine();
+        if (engine != null) {
+            engine.setNumThreads(numThreads);
         }
     }
 
+    private InferenceEngine getEngine() {
+        RecognitionPipeline current = pipeline;
+        return current == null ? null : current.getEngine();
+    }
+
     @Override
     public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-        backgroundHandler.post(() -> tfLite.setUseNNAPI(isChecked));
+        if (buttonView.getId() == R.id.keep_listening_switch) {
+            setKeepListening(isChecked);
+            return;
+        }
+        // Applied by the recognizer thread between two inferences.
+        InferenceEngine engine = getEngine();
+        if (engine != null) {
+            engine.setUseNNAPI(isChecked);
+        }
         if (isChecked) {
             apiSwitchCompat.setText("NNAPI");
         } else {
@@ -527,68 +404,38 @@ public class SpeechActivity extends Activity implements View.OnClickListener, Co
         }
     }
 
-    private static final String HANDLE_THREAD_NAME = "CameraBackground";
-
-    private void startBackgroundThread() {
-        backgroundThread = new HandlerThread(HANDLE_THREAD_NAME);
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
-    }
-
-    private void stopBackgroundThread() {
-        backgroundThread.quitSafely();
-        try {
-            backgroundThread.join();
-            backgroundThread = null;
-            backgroundHandler = null;
-        } catch (InterruptedException e) {
-            Log.e("amlan", "Interrupted when stopping background thread", e);
+    /**
+     * 打开后服务转为前台, 离开界面也继续识别; 关闭后随最后一个界面停止
+     */
+    private void setKeepListening(boolean keepListening) {
+        if (recognitionService != null && recognitionService.isForeground() == keepListening) {
+            // Just reflecting the service's state after binding.
+            return;
         }
-    }
-
-    @Override
-    protected void onResume() {
-        super.onResume();
-        startBackgroundThread();
-        if (modelLoadSuccess) {
-            startRecording();
-            startRecognition();
+        if (!keepListening) {
+            RecognitionService.stopListening(this);
+        } else if (PermissionUtils.hasPermission(this, new String[] { android.Manifest.permission.RECORD_AUDIO })) {
+            RecognitionService.startListening(this);
+        } else {
+            keepListeningSwitchCompat.setChecked(false);
+            requestMicrophonePermission();
         }
     }
 
     @Override
-    protected void onPause() {
-        super.onPause();
-        if (modelLoadSuccess) {
-            stopRecording();
-            stopRecognition();
-        }
+    protected void onStart() {
+        super.onStart();
+        EventBus.getInstance().subscribe(this, EVENT_MASK);
+        bindRecognitionService();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
-        stopBackgroundThread();
-        if (isFinishing()) {
-            try {
-                if (modelLoadSuccess) {
-                    stopRecording();
-                    stopRecognition();
-                }
-                if (recognizeHandlerThread != null) {
-                    recognizeHandlerThread.quitSafely();
-                }
-                if (recordHandlerThread != null) {
-                    recordHandlerThread.quitSafely();
-                }
-            } catch (Exception ignore) {
-
-            }
-        }
-    }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
+        // The service stops listening once no screen is bound, unless it runs in the foreground.
+        unbindRecognitionService();
+        EventBus.getInstance().unsubscribe(this);
+        handler.removeCallbacks(clearHighlight);
+        clearHighlight.run();
     }
 }
@@ -0,0 +1,223 @@
+package com.yjj.tesorflow.demo.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 单生产者/单消费者 无锁音频环形缓冲
+ * <p>
+ * The record thread is the only writer and the recognition thread the only reader. Positions are
+ * absolute sample sequences (total samples ever written), so the consumer can tell how much is new
+ * and whether the writer lapped it while it was copying, without either side taking a lock.
+ * <p>
+ * The samples themselves are plain array stores and loads, so the Java memory model does not order
+ * them against the sequence checks; a copy may see values from a write it has not observed yet.
+ * {@link #isIntact} therefore keeps the writer a whole write away from the data it vouches for, and
+ * the ring must hold the longest window read plus the longest single write, or every read is torn.
+ */
+public class AudioRingBuffer {
+    final short[] samples;
+    final int mask;
+    private final int capacity;
+
+    /**
+     * Sequence the writer is about to fill up to. Published before the copy so a reader can detect
+     * that samples it was copying have been overwritten.
+     */
+    private final AtomicLong claimSequence = new AtomicLong();
+    /**
+     * Sequence up to which samples are fully written and visible.
+     */
+    private final AtomicLong writeSequence = new AtomicLong();
+    /**
+     * End sequence of the consumer's last snapshot.
+     */
+    private volatile long readSequence;
+    /**
+     * Consumer parked in {@link #awaitSequence} and the sequence it is waiting for.
+     */
+    private volatile Thread waiter;
+    private volatile long waitTarget = Long.MAX_VALUE;
+    /**
+     * Longest single write so far, published before the claim that covers it.
+     */
+    private volatile int maxWriteLength;
+
+    // Producer-owned counters, only ever written by the record thread.
+    private volatile long overrunCount;
+    private volatile long droppedSamples;
+    // Consumer-owned counter, only ever written by the recognition thread.
+    private volatile long tornReadCount;
+
+    /**
+     * @param minimumCapacity number of samples that must fit; rounded up to a power of two
+     */
+    public AudioRingBuffer(int minimumCapacity) {
+        if (minimumCapacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + minimumCapacity);
+        }
+        int size = Integer.highestOneBit(minimumCapacity);
+        if (size < minimumCapacity) {
+            size <<= 1;
+        }
+        capacity = size;
+        mask = size - 1;
+        samples = new short[size];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Appends samples, typically straight from {@code AudioRecord.read}. Producer thread only.
+     */
+    public void write(short[] src, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (length > capacity) {
+            // Only the newest capacity samples can survive anyway.
+            offset += length - capacity;
+            length = capacity;
+        }
+        if (length > maxWriteLength) {
+            maxWriteLength = length;
+        }
+        long start = writeSequence.get();
+        long end = start + length;
+        claimSequence.set(end);
+
+        int index = (int) (start & mask);
+        int firstCopyLength = Math.min(length, capacity - index);
+        System.arraycopy(src, offset, samples, index, firstCopyLength);
+        System.arraycopy(src, offset + firstCopyLength, samples, 0, length - firstCopyLength);
+
+        // Samples the consumer never looked at are about to become unreachable.
+        long unread = end - readSequence;
+        if (unread > capacity) {
+            overrunCount++;
+            droppedSamples += Math.min(length, unread - capacity);
+        }
+        writeSequence.set(end);
+
+        Thread parked = waiter;
+        if (parked != null && end >= waitTarget) {
+            LockSupport.unpark(parked);
+        }
+    }
+
+    /**
+     * Total number of samples written so far.
+     */
+    public long writeSequence() {
+        return writeSequence.get();
+    }
+
+    /**
+     * Blocks until at least {@code target} samples have been written or the timeout elapses.
+     * Consumer thread only. The producer unparks the consumer directly, so neither side takes a lock.
+     *
+     * @return the current write sequence, which is below {@code target} on timeout or interrupt
+     */
+    public long awaitSequence(long target, long timeoutNanos) {
+        long sequence = writeSequence.get();
+        if (sequence >= target || timeoutNanos <= 0) {
+            return sequence;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        waitTarget = target;
+        waiter = Thread.currentThread();
+        try {
+            while ((sequence = writeSequence.get()) < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter = null;
+            waitTarget = Long.MAX_VALUE;
+        }
+        return sequence;
+    }
+
+    /**
+     * Copies the latest {@code length} samples into {@code dst}, oldest first. Consumer thread only.
+     * Before enough audio has arrived the head of the window is zero-filled.
+     *
+     * @return the sequence number just past the last copied sample
+     */
+    public long snapshot(short[] dst, int length) {
+        if (length > capacity || length > dst.length) {
+            throw new IllegalArgumentException(
+                "snapshot of " + length + " samples does not fit capacity " + capacity + " / dst " + dst.length);
+        }
+        for (; ; ) {
+            long end = writeSequence.get();
+            long start = end - length;
+            int index = (int) (start & mask);
+            int firstCopyLength = Math.min(length, capacity - index);
+            System.arraycopy(samples, index, dst, 0, firstCopyLength);
+            System.arraycopy(samples, 0, dst, firstCopyLength, length - firstCopyLength);
+            if (isIntact(start)) {
+                markConsumed(end);
+                return end;
+            }
+            checkHeadroom(length);
+            tornReadCount++;
+        }
+    }
+
+    /**
+     * Whether samples from {@code fromSequence} onwards are still in the buffer, including any write
+     * that is in progress right now and one more write after it. Readers check this after copying.
+     * The extra write covers samples the copy may have picked up from a write whose claim it did not
+     * see yet, so a copy passes only if even that write could not have reached it.
+     */
+    boolean isIntact(long fromSequence) {
+        return claimSequence.get() - fromSequence + maxWriteLength <= capacity;
+    }
+
+    /**
+     * Called after a torn read; a window that can never be intact would otherwise be retried forever.
+     */
+    void checkHeadroom(int length) {
+        int maxWrite = maxWriteLength;
+        if (length + maxWrite > capacity) {
+            throw new IllegalStateException("ring of " + capacity + " samples can't hold a window of " + length
+                + " plus a write of " + maxWrite);
+        }
+    }
+
+    void markConsumed(long sequence) {
+        readSequence = sequence;
+    }
+
+    void recordTornRead() {
+        tornReadCount++;
+    }
+
+    /**
+     * Number of writes that overwrote samples the consumer had not read yet.
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * Number of samples overwritten before the consumer read them.
+     */
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    /**
+     * Number of snapshots that had to be retried because the writer lapped the copy.
+     */
+    public long getTornReadCount() {
+        return tornReadCount;
+    }
+}
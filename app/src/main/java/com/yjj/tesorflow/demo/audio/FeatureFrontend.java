@@ -0,0 +1,227 @@
+package com.yjj.tesorflow.demo.audio;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * log-mel/MFCC 特征提取, 增量计算
+ * <p>
+ * Frames sit at fixed absolute sample positions ({@code frame * frameStride}), so two windows a
+ * few strides apart share all but their newest frames. {@link #computeLatest} only transforms the
+ * frames that completed since the previous call and keeps the rest in a ring of feature frames.
+ * Live DSP cost therefore follows the amount of new audio rather than the window length. The
+ * window, FFT twiddles, mel filters and DCT matrix are built once; nothing is allocated per call.
+ * Consumer thread only.
+ */
+public class FeatureFrontend {
+    /**
+     * Added before the log so silent frames stay finite.
+     */
+    private static final float LOG_OFFSET = 1e-6f;
+
+    private final FrontendConfig config;
+    private final int frameCount;
+    private final int featureSize;
+    private final float[] window;
+    private final RealFft fft;
+    private final MelFilterbank melFilterbank;
+    private final float[] dct;
+
+    private final float[] frame;
+    private final float[] power;
+    private final float[] mel;
+    /**
+     * Features of the last {@code frameCount} frames, frame {@code f} at slot {@code f mod frameCount}.
+     */
+    private final float[] featureRing;
+
+    private AudioRingBuffer lastRing;
+    private long lastFrame = Long.MIN_VALUE;
+    private long computedFrames;
+    private long reusedFrames;
+
+    /**
+     * @param windowLength number of samples the model sees per inference
+     */
+    public FeatureFrontend(FrontendConfig config, int windowLength) {
+        this.config = config;
+        frameCount = config.getFrameCount(windowLength);
+        if (frameCount <= 0) {
+            throw new IllegalArgumentException(
+                "window of " + windowLength + " samples is shorter than one frame of " + config.frameLength);
+        }
+        featureSize = config.getFeatureSize();
+        // Periodic Hann, the usual choice for spectrogram framing.
+        window = new float[config.frameLength];
+        for (int i = 0; i < window.length; ++i) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / config.frameLength));
+        }
+        fft = new RealFft(config.fftSize);
+        melFilterbank =
+            new MelFilterbank(config.melBins, config.fftSize, config.sampleRate, config.lowerHz, config.upperHz);
+        if (config.dctCoefficients > 0) {
+            // Orthonormal DCT-II, truncated to the coefficients the model uses.
+            int m = config.melBins;
+            dct = new float[config.dctCoefficients * m];
+            for (int j = 0; j < config.dctCoefficients; ++j) {
+                double scale = Math.sqrt((j == 0 ? 1.0 : 2.0) / m);
+                for (int i = 0; i < m; ++i) {
+                    dct[j * m + i] = (float) (scale * Math.cos(Math.PI / m * (i + 0.5) * j));
+                }
+            }
+        } else {
+            dct = null;
+        }
+        frame = new float[config.fftSize];
+        power = new float[fft.binCount()];
+        mel = new float[config.melBins];
+        featureRing = new float[frameCount * featureSize];
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getFeatureSize() {
+        return featureSize;
+    }
+
+    /**
+     * Number of floats one window of features takes.
+     */
+    public int getFeatureCount() {
+        return frameCount * featureSize;
+    }
+
+    /**
+     * Writes the features of the latest complete window of {@code ring} into {@code dst}, oldest frame
+     * first, computing only the frames that are new since the last call. Audio before the start of
+     * the recording counts as silence.
+     *
+     * @return the ring sequence just past the newest sample the features cover
+     */
+    public long computeLatest(AudioRingBuffer ring, FloatBuffer dst) {
+        long end = ring.writeSequence();
+        long latest = floorDiv(end - config.frameLength, config.frameStride);
+        if (ring != lastRing || latest < lastFrame) {
+            // A different recording; none of the cached frames belong to it.
+            lastRing = ring;
+            lastFrame = Long.MIN_VALUE;
+        }
+        long oldest = latest - frameCount + 1;
+        long first = lastFrame == Long.MIN_VALUE ? oldest : Math.max(lastFrame + 1, oldest);
+        reusedFrames += first - oldest;
+        for (long f = first; f <= latest; ++f) {
+            loadFrame(ring, f * config.frameStride);
+            computeFeatures(slot(f) * featureSize);
+        }
+        lastFrame = latest;
+        for (int i = 0; i < frameCount; ++i) {
+            int from = slot(oldest + i) * featureSize;
+            int to = i * featureSize;
+            for (int k = 0; k < featureSize; ++k) {
+                dst.put(to + k, featureRing[from + k]);
+            }
+        }
+        long covered = latest * config.frameStride + config.frameLength;
+        ring.markConsumed(covered);
+        return covered;
+    }
+
+    /**
+     * Computes all frames of the window of {@code windowLength} samples starting at absolute index
+     * {@code start} of {@code pcm}, for offline use. Samples past the end of {@code pcm} are silence.
+     */
+    public void compute(ShortBuffer pcm, int start, FloatBuffer dst, int dstOffset) {
+        for (int i = 0; i < frameCount; ++i) {
+            int frameStart = start + i * config.frameStride;
+            int available = Math.max(0, Math.min(config.frameLength, pcm.limit() - frameStart));
+            for (int s = 0; s < available; ++s) {
+                frame[s] = pcm.get(frameStart + s) * PcmConverter.PCM16_SCALE * window[s];
+            }
+            for (int s = available; s < frame.length; ++s) {
+                frame[s] = 0;
+            }
+            computeFeatures(0);
+            for (int k = 0; k < featureSize; ++k) {
+                dst.put(dstOffset + i * featureSize + k, featureRing[k]);
+            }
+        }
+        // The ring was used as scratch.
+        lastFrame = Long.MIN_VALUE;
+    }
+
+    /**
+     * Copies one windowed frame out of the ring into {@code frame}, zero-padded to the FFT size.
+     */
+    private void loadFrame(AudioRingBuffer ring, long start) {
+        final short[] samples = ring.samples;
+        int length = config.frameLength;
+        for (int s = 0; s < length; ++s) {
+            long position = start + s;
+            frame[s] = position < 0 ? 0 : samples[(int) (position & ring.mask)] * PcmConverter.PCM16_SCALE * window[s];
+        }
+        for (int s = length; s < frame.length; ++s) {
+            frame[s] = 0;
+        }
+        if (!ring.isIntact(start)) {
+            // Lapped by the recorder while copying; the frame's audio is gone, so treat it as silence.
+            ring.recordTornRead();
+            for (int s = 0; s < length; ++s) {
+                frame[s] = 0;
+            }
+        }
+    }
+
+    private void computeFeatures(int offset) {
+        computedFrames++;
+        fft.powerSpectrum(frame, power);
+        melFilterbank.apply(power, mel);
+        for (int i = 0; i < mel.length; ++i) {
+            mel[i] = (float) Math.log(mel[i] + LOG_OFFSET);
+        }
+        if (dct == null) {
+            System.arraycopy(mel, 0, featureRing, offset, featureSize);
+            return;
+        }
+        int m = mel.length;
+        for (int j = 0; j < featureSize; ++j) {
+            float sum = 0;
+            int row = j * m;
+            for (int i = 0; i < m; ++i) {
+                sum += dct[row + i] * mel[i];
+            }
+            featureRing[offset + j] = sum;
+        }
+    }
+
+    private int slot(long frameIndex) {
+        int slot = (int) (frameIndex % frameCount);
+        return slot < 0 ? slot + frameCount : slot;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * Number of frames transformed so far.
+     */
+    public long getComputedFrames() {
+        return computedFrames;
+    }
+
+    /**
+     * Number of frames served from the feature ring instead of being transformed again.
+     */
+    public long getReusedFrames() {
+        return reusedFrames;
+    }
+
+    public void reset() {
+        lastRing = null;
+        lastFrame = Long.MIN_VALUE;
+    }
+}
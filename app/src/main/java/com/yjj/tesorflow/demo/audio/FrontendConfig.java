@@ -0,0 +1,74 @@
+package com.yjj.tesorflow.demo.audio;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 特征提取参数
+ * <p>
+ * Describes the log-mel or MFCC features a model was trained on. It has to match the training
+ * script's settings; models that take the raw waveform have no config at all.
+ */
+public class FrontendConfig {
+    public static final float DEFAULT_LOWER_HZ = 20.0f;
+    public static final float DEFAULT_UPPER_HZ = 4000.0f;
+
+    public final int sampleRate;
+    /**
+     * 每帧样本数
+     */
+    public final int frameLength;
+    /**
+     * 帧移样本数
+     */
+    public final int frameStride;
+    public final int fftSize;
+    public final int melBins;
+    /**
+     * 保留的DCT系数个数, 0表示直接输出log-mel
+     */
+    public final int dctCoefficients;
+    public final float lowerHz;
+    public final float upperHz;
+
+    public FrontendConfig(int sampleRate, int frameLength, int frameStride, int melBins, int dctCoefficients,
+        float lowerHz, float upperHz) {
+        if (frameLength <= 0 || frameStride <= 0 || frameStride > frameLength) {
+            throw new IllegalArgumentException("bad framing: length " + frameLength + ", stride " + frameStride);
+        }
+        if (dctCoefficients < 0 || dctCoefficients > melBins) {
+            throw new IllegalArgumentException(dctCoefficients + " DCT coefficients from " + melBins + " mel bins");
+        }
+        this.sampleRate = sampleRate;
+        this.frameLength = frameLength;
+        this.frameStride = frameStride;
+        int size = Integer.highestOneBit(frameLength);
+        this.fftSize = size < frameLength ? size << 1 : size;
+        this.melBins = melBins;
+        this.dctCoefficients = dctCoefficients;
+        this.lowerHz = lowerHz;
+        this.upperHz = Math.min(upperHz, sampleRate / 2.0f);
+    }
+
+    public static FrontendConfig logMel(int sampleRate, int frameMs, int strideMs, int melBins) {
+        return new FrontendConfig(sampleRate, sampleRate * frameMs / 1000, sampleRate * strideMs / 1000, melBins, 0,
+            DEFAULT_LOWER_HZ, DEFAULT_UPPER_HZ);
+    }
+
+    public static FrontendConfig mfcc(int sampleRate, int frameMs, int strideMs, int melBins, int coefficients) {
+        return new FrontendConfig(sampleRate, sampleRate * frameMs / 1000, sampleRate * strideMs / 1000, melBins,
+            coefficients, DEFAULT_LOWER_HZ, DEFAULT_UPPER_HZ);
+    }
+
+    /**
+     * 每帧特征个数
+     */
+    public int getFeatureSize() {
+        return dctCoefficients > 0 ? dctCoefficients : melBins;
+    }
+
+    /**
+     * 一个{@code windowLength}样本的窗口切出的帧数
+     */
+    public int getFrameCount(int windowLength) {
+        return windowLength < frameLength ? 0 : 1 + (windowLength - frameLength) / frameStride;
+    }
+}
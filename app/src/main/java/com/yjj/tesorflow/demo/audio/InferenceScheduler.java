@@ -0,0 +1,74 @@
+package com.yjj.tesorflow.demo.audio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 流式推理调度
+ * <p>
+ * Decides when the recognizer should run based on how much audio the record thread has written
+ * since the last inference, instead of a wall-clock sleep. The model runs once every
+ * {@code strideSamples} new samples; if audio trickles in more slowly the wait is capped at
+ * {@code maxWaitMs} to keep detection latency bounded, and when nothing new arrived at all the
+ * inference is skipped.
+ */
+public class InferenceScheduler {
+    private final AudioRingBuffer ring;
+    private final int strideSamples;
+    private final long maxWaitNanos;
+
+    private long lastProcessedSequence;
+    private volatile long scheduledCount;
+    private volatile long skippedCount;
+
+    public InferenceScheduler(AudioRingBuffer ring, int strideSamples, long maxWaitMs) {
+        if (strideSamples <= 0) {
+            throw new IllegalArgumentException("stride must be positive: " + strideSamples);
+        }
+        this.ring = ring;
+        this.strideSamples = strideSamples;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        lastProcessedSequence = ring.writeSequence();
+    }
+
+    /**
+     * Blocks until the next inference is due. Consumer thread only.
+     *
+     * @return true if there is new audio to run on, false if nothing arrived within the max wait
+     */
+    public boolean awaitNextWindow() {
+        long sequence = ring.awaitSequence(lastProcessedSequence + strideSamples, maxWaitNanos);
+        if (sequence > lastProcessedSequence) {
+            scheduledCount++;
+            return true;
+        }
+        skippedCount++;
+        return false;
+    }
+
+    /**
+     * Records the ring sequence the last inference consumed.
+     */
+    public void markProcessed(long sequence) {
+        lastProcessedSequence = sequence;
+    }
+
+    /**
+     * Number of samples written since the last inference.
+     */
+    public long pendingSamples() {
+        return ring.writeSequence() - lastProcessedSequence;
+    }
+
+    public int getStrideSamples() {
+        return strideSamples;
+    }
+
+    public long getScheduledCount() {
+        return scheduledCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+}
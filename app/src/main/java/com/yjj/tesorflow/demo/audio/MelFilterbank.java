@@ -0,0 +1,93 @@
+package com.yjj.tesorflow.demo.audio;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * mel滤波器组
+ * <p>
+ * Triangular filters spaced evenly on the HTK mel scale. Each filter only covers a handful of FFT
+ * bins, so it is stored as its first bin plus the weights over its span. Applying the bank then
+ * touches each bin at most twice instead of multiplying a dense {@code bins x filters} matrix.
+ */
+public class MelFilterbank {
+    private final int[] firstBin;
+    private final float[][] weights;
+
+    /**
+     * @param melBins    number of filters
+     * @param fftSize    transform size the power spectrum came from
+     * @param sampleRate sample rate of the audio
+     * @param lowerHz    lower edge of the first filter
+     * @param upperHz    upper edge of the last filter
+     */
+    public MelFilterbank(int melBins, int fftSize, int sampleRate, float lowerHz, float upperHz) {
+        if (melBins <= 0 || lowerHz < 0 || upperHz <= lowerHz || upperHz > sampleRate / 2.0f) {
+            throw new IllegalArgumentException(
+                "bad mel filterbank: " + melBins + " bins over " + lowerHz + "-" + upperHz + " Hz at " + sampleRate);
+        }
+        int binCount = fftSize / 2 + 1;
+        double lowerMel = hzToMel(lowerHz);
+        double upperMel = hzToMel(upperHz);
+        double[] edges = new double[melBins + 2];
+        for (int i = 0; i < edges.length; ++i) {
+            edges[i] = lowerMel + (upperMel - lowerMel) * i / (melBins + 1);
+        }
+        firstBin = new int[melBins];
+        weights = new float[melBins][];
+        float[] scratch = new float[binCount];
+        for (int m = 0; m < melBins; ++m) {
+            double left = edges[m];
+            double center = edges[m + 1];
+            double right = edges[m + 2];
+            int first = -1;
+            int last = -1;
+            for (int k = 0; k < binCount; ++k) {
+                double mel = hzToMel((double) k * sampleRate / fftSize);
+                float weight;
+                if (mel <= left || mel >= right) {
+                    weight = 0;
+                } else if (mel <= center) {
+                    weight = (float) ((mel - left) / (center - left));
+                } else {
+                    weight = (float) ((right - mel) / (right - center));
+                }
+                scratch[k] = weight;
+                if (weight > 0) {
+                    if (first < 0) {
+                        first = k;
+                    }
+                    last = k;
+                }
+            }
+            // A filter narrower than one bin gets no weights and always reads as zero energy.
+            firstBin[m] = Math.max(first, 0);
+            weights[m] = new float[first < 0 ? 0 : last - first + 1];
+            for (int i = 0; i < weights[m].length; ++i) {
+                weights[m][i] = scratch[first + i];
+            }
+        }
+    }
+
+    static double hzToMel(double hz) {
+        return 1127.0 * Math.log(1.0 + hz / 700.0);
+    }
+
+    public int size() {
+        return firstBin.length;
+    }
+
+    /**
+     * @param power power spectrum, {@code fftSize / 2 + 1} bins
+     * @param out   receives one energy per filter
+     */
+    public void apply(float[] power, float[] out) {
+        for (int m = 0; m < firstBin.length; ++m) {
+            float[] w = weights[m];
+            int base = firstBin[m];
+            float sum = 0;
+            for (int i = 0; i < w.length; ++i) {
+                sum += w[i] * power[base + i];
+            }
+            out[m] = sum;
+        }
+    }
+}
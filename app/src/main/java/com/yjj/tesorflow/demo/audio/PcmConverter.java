@@ -0,0 +1,154 @@
+package com.yjj.tesorflow.demo.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * PCM16 转 float 工具
+ * <p>
+ * Converts straight from the audio ring into the interpreter's input buffer in one pass, so there is
+ * no intermediate short[] window and no per-sample array objects. Quantized models get the samples
+ * through a lookup table indexed by {@code sample & 0xFFFF}, with scale and zero-point already applied.
+ */
+public class PcmConverter {
+    /**
+     * Maps signed 16-bit samples into [-1.0f, 1.0f]; a multiply is much cheaper than a divide.
+     */
+    public static final float PCM16_SCALE = 1.0f / 32767.0f;
+
+    /**
+     * Writes the latest {@code length} samples of {@code ring}, normalized, into {@code dst} starting at
+     * absolute index 0. Retries if the record thread lapped the read. Consumer thread only.
+     *
+     * @return the ring sequence just past the last converted sample
+     */
+    public static long convertLatest(AudioRingBuffer ring, int length, FloatBuffer dst) {
+        if (length > ring.capacity() || length > dst.capacity()) {
+            throw new IllegalArgumentException(
+                "window of " + length + " samples does not fit ring " + ring.capacity() + " / dst " + dst.capacity());
+        }
+        final short[] samples = ring.samples;
+        for (; ; ) {
+            long end = ring.writeSequence();
+            long start = end - length;
+            int index = (int) (start & ring.mask);
+            int firstCopyLength = Math.min(length, ring.capacity() - index);
+            for (int i = 0; i < firstCopyLength; ++i) {
+                dst.put(i, samples[index + i] * PCM16_SCALE);
+            }
+            for (int i = firstCopyLength; i < length; ++i) {
+                dst.put(i, samples[i - firstCopyLength] * PCM16_SCALE);
+            }
+            if (ring.isIntact(start)) {
+                ring.markConsumed(end);
+                return end;
+            }
+            ring.checkHeadroom(length);
+            ring.recordTornRead();
+        }
+    }
+
+    /**
+     * Writes {@code length} normalized samples from {@code src}, starting at absolute index
+     * {@code srcOffset}, into {@code dst} at absolute index {@code dstOffset}. Samples past the end of
+     * {@code src} are written as silence, which pads the last window of a file.
+     */
+    public static void convert(ShortBuffer src, int srcOffset, int length, FloatBuffer dst, int dstOffset) {
+        int available = Math.max(0, Math.min(length, src.limit() - srcOffset));
+        for (int i = 0; i < available; ++i) {
+            dst.put(dstOffset + i, src.get(srcOffset + i) * PCM16_SCALE);
+        }
+        for (int i = available; i < length; ++i) {
+            dst.put(dstOffset + i, 0.0f);
+        }
+    }
+
+    /**
+     * Quantized variant of {@link #convertLatest(AudioRingBuffer, int, FloatBuffer)} for 8-bit input
+     * tensors.
+     */
+    public static long convertLatest(AudioRingBuffer ring, int length, ByteBuffer dst, byte[] table) {
+        checkWindow(ring, length, dst.capacity());
+        final short[] samples = ring.samples;
+        for (; ; ) {
+            long end = ring.writeSequence();
+            long start = end - length;
+            int index = (int) (start & ring.mask);
+            int firstCopyLength = Math.min(length, ring.capacity() - index);
+            for (int i = 0; i < firstCopyLength; ++i) {
+                dst.put(i, table[samples[index + i] & 0xFFFF]);
+            }
+            for (int i = firstCopyLength; i < length; ++i) {
+                dst.put(i, table[samples[i - firstCopyLength] & 0xFFFF]);
+            }
+            if (ring.isIntact(start)) {
+                ring.markConsumed(end);
+                return end;
+            }
+            ring.checkHeadroom(length);
+            ring.recordTornRead();
+        }
+    }
+
+    /**
+     * Quantized variant of {@link #convertLatest(AudioRingBuffer, int, FloatBuffer)} for 16-bit input
+     * tensors.
+     */
+    public static long convertLatest(AudioRingBuffer ring, int length, ByteBuffer dst, short[] table) {
+        checkWindow(ring, length, dst.capacity() / 2);
+        final short[] samples = ring.samples;
+        for (; ; ) {
+            long end = ring.writeSequence();
+            long start = end - length;
+            int index = (int) (start & ring.mask);
+            int firstCopyLength = Math.min(length, ring.capacity() - index);
+            for (int i = 0; i < firstCopyLength; ++i) {
+                dst.putShort(i * 2, table[samples[index + i] & 0xFFFF]);
+            }
+            for (int i = firstCopyLength; i < length; ++i) {
+                dst.putShort(i * 2, table[samples[i - firstCopyLength] & 0xFFFF]);
+            }
+            if (ring.isIntact(start)) {
+                ring.markConsumed(end);
+                return end;
+            }
+            ring.checkHeadroom(length);
+            ring.recordTornRead();
+        }
+    }
+
+    /**
+     * Quantized variant of {@link #convert(ShortBuffer, int, int, FloatBuffer, int)}; offsets count
+     * values, not bytes.
+     */
+    public static void convert(ShortBuffer src, int srcOffset, int length, ByteBuffer dst, int dstOffset,
+        byte[] table) {
+        int available = Math.max(0, Math.min(length, src.limit() - srcOffset));
+        for (int i = 0; i < available; ++i) {
+            dst.put(dstOffset + i, table[src.get(srcOffset + i) & 0xFFFF]);
+        }
+        for (int i = available; i < length; ++i) {
+            dst.put(dstOffset + i, table[0]);
+        }
+    }
+
+    public static void convert(ShortBuffer src, int srcOffset, int length, ByteBuffer dst, int dstOffset,
+        short[] table) {
+        int available = Math.max(0, Math.min(length, src.limit() - srcOffset));
+        for (int i = 0; i < available; ++i) {
+            dst.putShort((dstOffset + i) * 2, table[src.get(srcOffset + i) & 0xFFFF]);
+        }
+        for (int i = available; i < length; ++i) {
+            dst.putShort((dstOffset + i) * 2, table[0]);
+        }
+    }
+
+    private static void checkWindow(AudioRingBuffer ring, int length, int dstValues) {
+        if (length > ring.capacity() || length > dstValues) {
+            throw new IllegalArgumentException(
+                "window of " + length + " samples does not fit ring " + ring.capacity() + " / dst " + dstValues);
+        }
+    }
+}
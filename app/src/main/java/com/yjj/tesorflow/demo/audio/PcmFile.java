@@ -0,0 +1,122 @@
+package com.yjj.tesorflow.demo.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 内存映射的 PCM/WAV 音频文件
+ * <p>
+ * Maps the whole file read-only and exposes its samples as a little-endian {@link ShortBuffer} view,
+ * so long recordings are paged in by the OS as they are read instead of being copied onto the heap.
+ * Only 16-bit mono audio is accepted. Files ending in {@code .wav} are parsed as RIFF/WAVE, anything
+ * else is treated as headerless PCM at the expected sample rate.
+ */
+public class PcmFile {
+    private static final String WAV_POSTFIX = ".wav";
+    private static final int RIFF = 0x46464952;
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746d66;
+    private static final int DATA = 0x61746164;
+    private static final int FORMAT_PCM = 1;
+
+    private final File file;
+    private final ShortBuffer samples;
+    private final int sampleRate;
+
+    private PcmFile(File file, ShortBuffer samples, int sampleRate) {
+        this.file = file;
+        this.samples = samples;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @param expectedSampleRate the rate the model was trained on; WAV files at another rate are rejected
+     */
+    public static PcmFile open(File file, int expectedSampleRate) throws IOException {
+        MappedByteBuffer mapped;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (!file.getName().toLowerCase().endsWith(WAV_POSTFIX)) {
+            return new PcmFile(file, mapped.asShortBuffer(), expectedSampleRate);
+        }
+
+        if (mapped.remaining() < 12 || mapped.getInt(0) != RIFF || mapped.getInt(8) != WAVE) {
+            throw new IOException(file + " is not a RIFF/WAVE file");
+        }
+        int sampleRate = -1;
+        int position = 12;
+        while (position + 8 <= mapped.limit()) {
+            int chunkId = mapped.getInt(position);
+            int chunkSize = mapped.getInt(position + 4);
+            int body = position + 8;
+            // Only a data chunk may run past the end, when the recording was cut short; it is clamped below.
+            if (chunkSize < 0 || (chunkId != DATA && chunkSize > mapped.limit() - body)) {
+                throw new IOException(file + " has a bad chunk size " + chunkSize + " at offset " + position);
+            }
+            if (chunkId == FMT) {
+                if (chunkSize < 16) {
+                    throw new IOException(file + " has a " + chunkSize + " byte fmt chunk");
+                }
+                int format = mapped.getShort(body) & 0xffff;
+                int channels = mapped.getShort(body + 2) & 0xffff;
+                sampleRate = mapped.getInt(body + 4);
+                int bitsPerSample = mapped.getShort(body + 14) & 0xffff;
+                if (format != FORMAT_PCM || channels != 1 || bitsPerSample != 16) {
+                    throw new IOException(file + " must be 16-bit mono PCM, got format " + format + ", "
+                        + channels + " channels, " + bitsPerSample + " bits");
+                }
+                if (sampleRate != expectedSampleRate) {
+                    throw new IOException(file + " is " + sampleRate + " Hz, expected " + expectedSampleRate);
+                }
+            } else if (chunkId == DATA) {
+                if (sampleRate < 0) {
+                    throw new IOException(file + " has no fmt chunk before its data");
+                }
+                int dataSize = Math.min(chunkSize, mapped.limit() - body);
+                mapped.position(body);
+                mapped.limit(body + dataSize);
+                ByteBuffer data = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+                return new PcmFile(file, data.asShortBuffer(), sampleRate);
+            }
+            // Chunks are padded to an even size.
+            position = body + chunkSize + (chunkSize & 1);
+        }
+        throw new IOException(file + " has no data chunk");
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The samples, read-only. Use absolute gets; the view is not meant to be shared between threads.
+     */
+    public ShortBuffer getSamples() {
+        return samples;
+    }
+
+    public int getSampleCount() {
+        return samples.limit();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public double getDurationSeconds() {
+        return (double) getSampleCount() / sampleRate;
+    }
+}
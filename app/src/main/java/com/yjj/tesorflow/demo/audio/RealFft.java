@@ -0,0 +1,107 @@
+package com.yjj.tesorflow.demo.audio;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 实数FFT, 旋转因子预计算
+ * <p>
+ * An {@code n}-point real FFT done as an {@code n/2}-point complex FFT over the even and odd
+ * samples, followed by one split pass. The twiddles, the split factors and the bit-reversal
+ * permutation are computed once in the constructor, so a transform is only multiplies and adds
+ * on preallocated arrays. Not thread-safe; each frontend owns its own instance.
+ */
+public class RealFft {
+    private final int n;
+    private final int half;
+    /**
+     * cos/sin of {@code 2 * pi * k / n} for k in [0, n/2]; the complex stage uses every other entry.
+     */
+    private final float[] cos;
+    private final float[] sin;
+    private final int[] bitReverse;
+    private final float[] re;
+    private final float[] im;
+
+    /**
+     * @param n transform size, a power of two of at least 4
+     */
+    public RealFft(int n) {
+        if (n < 4 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two >= 4: " + n);
+        }
+        this.n = n;
+        half = n / 2;
+        cos = new float[half + 1];
+        sin = new float[half + 1];
+        for (int k = 0; k <= half; ++k) {
+            double angle = 2.0 * Math.PI * k / n;
+            cos[k] = (float) Math.cos(angle);
+            sin[k] = (float) Math.sin(angle);
+        }
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; ++i) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        re = new float[half];
+        im = new float[half];
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Number of bins {@link #powerSpectrum} produces, DC to Nyquist.
+     */
+    public int binCount() {
+        return half + 1;
+    }
+
+    /**
+     * @param input {@code n} real samples, not modified
+     * @param power receives {@code |X[k]|^2} for k in [0, n/2]
+     */
+    public void powerSpectrum(float[] input, float[] power) {
+        // Pack even samples as the real part and odd samples as the imaginary part.
+        for (int i = 0; i < half; ++i) {
+            int j = bitReverse[i];
+            re[j] = input[2 * i];
+            im[j] = input[2 * i + 1];
+        }
+        // Iterative radix-2 over n/2 points; the twiddle for k/size is entry 2 * k * (half / size).
+        for (int size = 2; size <= half; size <<= 1) {
+            int halfSize = size >> 1;
+            int step = 2 * (half / size);
+            for (int start = 0; start < half; start += size) {
+                for (int k = 0; k < halfSize; ++k) {
+                    float wr = cos[k * step];
+                    float wi = -sin[k * step];
+                    int a = start + k;
+                    int b = a + halfSize;
+                    float tr = wr * re[b] - wi * im[b];
+                    float ti = wr * im[b] + wi * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        // Split into the spectrum of the real input: X[k] = E[k] + W^k O[k].
+        for (int k = 0; k <= half; ++k) {
+            int p = k == half ? 0 : k;
+            int q = k == 0 ? 0 : half - k;
+            float a = re[p];
+            float b = im[p];
+            float c = re[q];
+            float d = im[q];
+            float evenRe = 0.5f * (a + c);
+            float evenIm = 0.5f * (b - d);
+            float oddRe = 0.5f * (b + d);
+            float oddIm = -0.5f * (a - c);
+            float xr = evenRe + cos[k] * oddRe + sin[k] * oddIm;
+            float xi = evenIm + cos[k] * oddIm - sin[k] * oddRe;
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+}
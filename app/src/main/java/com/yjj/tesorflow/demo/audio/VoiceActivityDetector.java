@@ -0,0 +1,128 @@
+package com.yjj.tesorflow.demo.audio;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 基于能量的语音活动检测
+ * <p>
+ * Looks only at the samples recorded since the previous call, in fixed analysis frames. A frame is
+ * voiced when its energy is above the threshold and its zero-crossing count is below the limit
+ * (broadband hiss crosses zero far more often than speech). The gate stays open for a hangover
+ * period after the last voiced frame so the model still sees the whole word as it slides through
+ * the window. Thresholds are compared in raw squared-sample units, so no log is taken per frame.
+ */
+public class VoiceActivityDetector {
+    private static final double FULL_SCALE_SQUARED = 32768.0 * 32768.0;
+
+    private final AudioRingBuffer ring;
+    private final int frameSamples;
+    private final int hangoverSamples;
+    private final double energyThreshold;
+    private final int maxZeroCrossings;
+    private final float energyThresholdDb;
+
+    private long analyzedSequence;
+    private long lastVoicedSequence;
+    private double frameEnergy;
+    private int frameZeroCrossings;
+    private int frameFill;
+    private short previousSample;
+    private volatile double lastFrameEnergy;
+
+    private volatile long gatedCount;
+    private volatile long executedCount;
+
+    /**
+     * @param frameSamples         analysis frame length, e.g. 10 ms of audio
+     * @param energyThresholdDb    mean frame energy, in dB relative to full scale, above which a frame is voiced
+     * @param maxZeroCrossingRate  fraction of samples that may change sign in a voiced frame, 0..1
+     * @param hangoverSamples      how long the gate stays open after the last voiced frame
+     */
+    public VoiceActivityDetector(AudioRingBuffer ring, int frameSamples, float energyThresholdDb,
+        float maxZeroCrossingRate, int hangoverSamples) {
+        if (frameSamples <= 0) {
+            throw new IllegalArgumentException("frame length must be positive: " + frameSamples);
+        }
+        this.ring = ring;
+        this.frameSamples = frameSamples;
+        this.hangoverSamples = hangoverSamples;
+        this.energyThresholdDb = energyThresholdDb;
+        this.energyThreshold = frameSamples * FULL_SCALE_SQUARED * Math.pow(10.0, energyThresholdDb / 10.0);
+        this.maxZeroCrossings = (int) (maxZeroCrossingRate * frameSamples);
+        analyzedSequence = ring.writeSequence();
+        lastVoicedSequence = analyzedSequence - hangoverSamples - 1;
+    }
+
+    /**
+     * Analyzes the newly recorded audio and decides whether the next inference is worth running.
+     * Consumer thread only.
+     */
+    public boolean shouldRunInference() {
+        long end = ring.writeSequence();
+        long start = Math.max(analyzedSequence, end - ring.capacity());
+        final short[] samples = ring.samples;
+        final int mask = ring.mask;
+        for (long sequence = start; sequence < end; ++sequence) {
+            short sample = samples[(int) (sequence & mask)];
+            frameEnergy += sample * sample;
+            if ((sample < 0) != (previousSample < 0)) {
+                frameZeroCrossings++;
+            }
+            previousSample = sample;
+            if (++frameFill == frameSamples) {
+                if (frameEnergy > energyThreshold && frameZeroCrossings <= maxZeroCrossings) {
+                    lastVoicedSequence = sequence + 1;
+                }
+                lastFrameEnergy = frameEnergy;
+                frameEnergy = 0;
+                frameZeroCrossings = 0;
+                frameFill = 0;
+            }
+        }
+        if (!ring.isIntact(start)) {
+            // The recorder lapped us, so the analysis may be based on overwritten audio;
+            // err on the side of running the model.
+            lastVoicedSequence = end;
+        }
+        analyzedSequence = end;
+
+        if (end - lastVoicedSequence <= hangoverSamples) {
+            executedCount++;
+            return true;
+        }
+        gatedCount++;
+        return false;
+    }
+
+    /**
+     * Ring sequence up to which audio has been analyzed.
+     */
+    public long getAnalyzedSequence() {
+        return analyzedSequence;
+    }
+
+    /**
+     * Energy of the last complete analysis frame, in dB relative to full scale. Useful for tuning the
+     * threshold against real devices.
+     */
+    public float getLastFrameEnergyDb() {
+        return (float) (10.0 * Math.log10(lastFrameEnergy / (frameSamples * FULL_SCALE_SQUARED) + 1e-10));
+    }
+
+    public float getEnergyThresholdDb() {
+        return energyThresholdDb;
+    }
+
+    /**
+     * Number of inferences skipped because the input was below threshold.
+     */
+    public long getGatedCount() {
+        return gatedCount;
+    }
+
+    /**
+     * Number of inferences let through.
+     */
+    public long getExecutedCount() {
+        return executedCount;
+    }
+}
@@ -0,0 +1,258 @@
+package com.yjj.tesorflow.demo.event;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 识别事件分发, 主线程回调
+ * <p>
+ * Every event type has one preallocated slot. Publishing overwrites the slot and, if no dispatch
+ * is pending yet, posts a single prebuilt runnable to the main thread. So a burst of events costs
+ * one main-thread hop, the subscriber sees only the latest value of each type, and nothing is
+ * allocated per event. Publishers skip values that wouldn't change what is shown: detections are
+ * only published for a new command, and the inference time only when its millisecond value
+ * changes.
+ * <p>
+ * Subscribers are held weakly, so a screen that forgets to unsubscribe can still be collected. A
+ * subscriber therefore has to be strongly reachable from elsewhere, such as the activity itself
+ * rather than a lambda. The {@link Event} passed to a subscriber is reused, so copy out what you
+ * need and don't keep the object.
+ */
+public class EventBus {
+    /**
+     * 识别到新的命令
+     */
+    public static final int TYPE_DETECTION = 0;
+    /**
+     * 模型安装完成, 可以加载
+     */
+    public static final int TYPE_MODEL_LOADED = 1;
+    /**
+     * 最近一次推理的处理耗时
+     */
+    public static final int TYPE_INFERENCE_TIME = 2;
+    private static final int TYPE_COUNT = 3;
+
+    private static volatile EventBus instance;
+
+    public interface Subscriber {
+        void onEvent(Event event);
+    }
+
+    public static class Event {
+        public final int type;
+        /**
+         * 识别结果下标, 仅{@link #TYPE_DETECTION}
+         */
+        public int labelIndex;
+        public float score;
+        /**
+         * 处理耗时, 仅{@link #TYPE_INFERENCE_TIME}
+         */
+        public long processingNanos;
+        /**
+         * {@link System#nanoTime()} at publish time, to measure the main-thread hop.
+         */
+        public long publishNanos;
+
+        Event(int type) {
+            this.type = type;
+        }
+
+        void copyFrom(Event other) {
+            labelIndex = other.labelIndex;
+            score = other.score;
+            processingNanos = other.processingNanos;
+            publishNanos = other.publishNanos;
+        }
+    }
+
+    private static class Entry {
+        final WeakReference<Subscriber> ref;
+        final int typeMask;
+
+        Entry(Subscriber subscriber, int typeMask) {
+            this.ref = new WeakReference<>(subscriber);
+            this.typeMask = typeMask;
+        }
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+    // Guarded by lock.
+    private final Event[] published = new Event[TYPE_COUNT];
+    private int pendingMask;
+    private long lastInferenceTimeMs = -1;
+    // Main thread only.
+    private final Event[] delivering = new Event[TYPE_COUNT];
+    // Copy-on-write, replaced under subscribersLock.
+    private volatile Entry[] subscribers = new Entry[0];
+    private final Object subscribersLock = new Object();
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    private EventBus() {
+        for (int type = 0; type < TYPE_COUNT; ++type) {
+            published[type] = new Event(type);
+            delivering[type] = new Event(type);
+        }
+    }
+
+    public static EventBus getInstance() {
+        if (instance == null) {
+            synchronized (EventBus.class) {
+                if (instance == null) {
+                    instance = new EventBus();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public static int maskOf(int... types) {
+        int mask = 0;
+        for (int type : types) {
+            mask |= 1 << type;
+        }
+        return mask;
+    }
+
+    /**
+     * 订阅{@code typeMask}中的事件, 见{@link #maskOf}; 重复订阅时更新事件类型
+     */
+    public void subscribe(Subscriber subscriber, int typeMask) {
+        synchronized (subscribersLock) {
+            Entry[] next = without(subscribers, subscriber, 1);
+            next[next.length - 1] = new Entry(subscriber, typeMask);
+            subscribers = next;
+        }
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        synchronized (subscribersLock) {
+            subscribers = without(subscribers, subscriber, 0);
+        }
+    }
+
+    /**
+     * 去掉{@code subscriber}和已被回收的订阅者, 末尾留出{@code extra}个空位
+     */
+    private static Entry[] without(Entry[] current, Subscriber subscriber, int extra) {
+        int live = 0;
+        for (Entry entry : current) {
+            Subscriber existing = entry.ref.get();
+            if (existing != null && existing != subscriber) {
+                live++;
+            }
+        }
+        Entry[] next = new Entry[live + extra];
+        int i = 0;
+        for (Entry entry : current) {
+            Subscriber existing = entry.ref.get();
+            if (existing != null && existing != subscriber) {
+                next[i++] = entry;
+            }
+        }
+        return next;
+    }
+
+    public void publishDetection(int labelIndex, float score) {
+        boolean schedule;
+        synchronized (lock) {
+            Event event = published[TYPE_DETECTION];
+            event.labelIndex = labelIndex;
+            event.score = score;
+            event.publishNanos = System.nanoTime();
+            schedule = markPending(TYPE_DETECTION);
+        }
+        if (schedule) {
+            mainHandler.post(dispatchRunnable);
+        }
+    }
+
+    public void publishModelLoaded() {
+        boolean schedule;
+        synchronized (lock) {
+            published[TYPE_MODEL_LOADED].publishNanos = System.nanoTime();
+            schedule = markPending(TYPE_MODEL_LOADED);
+        }
+        if (schedule) {
+            mainHandler.post(dispatchRunnable);
+        }
+    }
+
+    /**
+     * 耗时的毫秒数不变时不发布
+     */
+    public void publishInferenceTime(long processingNanos) {
+        long ms = processingNanos / 1000000;
+        boolean schedule;
+        synchronized (lock) {
+            if (ms == lastInferenceTimeMs) {
+                return;
+            }
+            lastInferenceTimeMs = ms;
+            Event event = published[TYPE_INFERENCE_TIME];
+            event.processingNanos = processingNanos;
+            event.publishNanos = System.nanoTime();
+            schedule = markPending(TYPE_INFERENCE_TIME);
+        }
+        if (schedule) {
+            mainHandler.post(dispatchRunnable);
+        }
+    }
+
+    /**
+     * @return 之前没有待分发的事件, 需要投递一次分发
+     */
+    private boolean markPending(int type) {
+        boolean schedule = pendingMask == 0;
+        pendingMask |= 1 << type;
+        return schedule;
+    }
+
+    private void dispatch() {
+        int mask;
+        synchronized (lock) {
+            mask = pendingMask;
+            pendingMask = 0;
+            for (int type = 0; type < TYPE_COUNT; ++type) {
+                if ((mask & (1 << type)) != 0) {
+                    delivering[type].copyFrom(published[type]);
+                }
+            }
+        }
+        Entry[] current = subscribers;
+        for (int type = 0; type < TYPE_COUNT; ++type) {
+            int bit = 1 << type;
+            if ((mask & bit) == 0) {
+                continue;
+            }
+            for (Entry entry : current) {
+                if ((entry.typeMask & bit) == 0) {
+                    continue;
+                }
+                Subscriber subscriber = entry.ref.get();
+                if (subscriber != null) {
+                    subscriber.onEvent(delivering[type]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 清除发布状态, 新的识别开始时调用, 让第一次耗时总能发布
+     */
+    public void reset() {
+        synchronized (lock) {
+            lastInferenceTimeMs = -1;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.yjj.tesorflow.demo.inference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import com.yjj.tesorflow.demo.audio.AudioRingBuffer;
+import com.yjj.tesorflow.demo.utils.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 推理线程数与NNAPI自动调优
+ * <p>
+ * The first time a model is seen on a device, the tuner calibrates on a synthetic window. It tries
+ * every thread count up to the core count, with and without NNAPI where the platform has it. Each
+ * candidate gets a few warm-up runs and then a timed batch. Among the candidates whose process CPU
+ * time per inference fits the budget, the one with the lowest p95 latency wins. If none fits, the
+ * cheapest wins. The choice is stored per model hash and device, so later starts only read a
+ * preference. It is applied through the engine's pending configuration, so it only takes effect
+ * between inferences.
+ */
+public class EngineTuner {
+    private static final String TAG = "EngineTuner";
+    private static final String PREFS_NAME = "engine_tuning";
+    /**
+     * Half a core over the live pipeline's 30 ms inference stride.
+     */
+    public static final long DEFAULT_CPU_BUDGET_NANOS = 15000000L;
+    private static final int MAX_THREADS = 4;
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS = 20;
+    private static final int NNAPI_MIN_SDK = 27;
+
+    private final SharedPreferences prefs;
+    private final long cpuBudgetNanos;
+
+    /**
+     * 一组推理配置及其标定结果
+     */
+    public static class Choice {
+        public final int numThreads;
+        public final boolean useNNAPI;
+        public final long p95Nanos;
+        public final long cpuNanos;
+
+        Choice(int numThreads, boolean useNNAPI, long p95Nanos, long cpuNanos) {
+            this.numThreads = numThreads;
+            this.useNNAPI = useNNAPI;
+            this.p95Nanos = p95Nanos;
+            this.cpuNanos = cpuNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d threads%s, p95 %.2f ms, cpu %.2f ms", numThreads,
+                useNNAPI ? " + NNAPI" : "", p95Nanos / 1e6, cpuNanos / 1e6);
+        }
+    }
+
+    public EngineTuner(Context context) {
+        this(context, DEFAULT_CPU_BUDGET_NANOS);
+    }
+
+    /**
+     * @param cpuBudgetNanos process CPU time one inference may cost
+     */
+    public EngineTuner(Context context, long cpuBudgetNanos) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.cpuBudgetNanos = cpuBudgetNanos;
+    }
+
+    /**
+     * 读取已保存的配置, 没有时标定并保存, 然后应用到{@code engine}. 应在I/O线程中, 识别开始前调用.
+     *
+     * @param modelHash 模型内容的hash, 模型更新后重新标定
+     */
+    public Choice tune(InferenceEngine engine, String modelHash) {
+        // Preferences may be restored onto another device from a backup, so the device is part of the key.
+        String key = modelHash + "|" + Build.MODEL + "|" + Build.VERSION.SDK_INT;
+        Choice choice = parse(prefs.getString(key, null));
+        if (choice == null) {
+            long startNanos = System.nanoTime();
+            choice = calibrate(engine);
+            prefs.edit().putString(key, format(choice)).apply();
+            Log.i(TAG, "calibrated in " + (System.nanoTime() - startNanos) / 1000000 + " ms: " + choice);
+        }
+        engine.setNumThreads(choice.numThreads);
+        engine.setUseNNAPI(choice.useNNAPI);
+        return choice;
+    }
+
+    private Choice calibrate(InferenceEngine engine) {
+        AudioRingBuffer ring = syntheticWindow(engine.getInputLength());
+        int maxThreads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+        boolean nnapiAvailable = Build.VERSION.SDK_INT >= NNAPI_MIN_SDK;
+        Choice best = null;
+        Choice cheapest = null;
+        for (int nnapi = 0; nnapi <= (nnapiAvailable ? 1 : 0); ++nnapi) {
+            for (int threads = 1; threads <= maxThreads; ++threads) {
+                Choice candidate = measure(engine, ring, threads, nnapi == 1);
+                if (candidate == null) {
+                    continue;
+                }
+                Log.d(TAG, "candidate " + candidate);
+                if (cheapest == null || candidate.cpuNanos < cheapest.cpuNanos) {
+                    cheapest = candidate;
+                }
+                if (candidate.cpuNanos <= cpuBudgetNanos && (best == null || candidate.p95Nanos < best.p95Nanos)) {
+                    best = candidate;
+                }
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        return cheapest != null ? cheapest : new Choice(1, false, 0, 0);
+    }
+
+    /**
+     * @return 标定结果, 该配置无法运行时返回null
+     */
+    private static Choice measure(InferenceEngine engine, AudioRingBuffer ring, int threads, boolean nnapi) {
+        engine.setNumThreads(threads);
+        engine.setUseNNAPI(nnapi);
+        LatencyHistogram histogram = new LatencyHistogram();
+        try {
+            // The first run applies the configuration; NNAPI also compiles the model here.
+            for (int i = 0; i < WARMUP_RUNS; ++i) {
+                engine.run(ring);
+            }
+            long cpuStartMs = android.os.Process.getElapsedCpuTime();
+            for (int i = 0; i < TIMED_RUNS; ++i) {
+                long startNanos = System.nanoTime();
+                engine.run(ring);
+                histogram.record(System.nanoTime() - startNanos);
+            }
+            long cpuNanos = (android.os.Process.getElapsedCpuTime() - cpuStartMs) * 1000000L / TIMED_RUNS;
+            return new Choice(threads, nnapi, histogram.percentile(95), cpuNanos);
+        } catch (RuntimeException e) {
+            Log.w(TAG, threads + " threads" + (nnapi ? " + NNAPI" : "") + " failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * A window of low-level noise, so the interpreter runs on realistic input values.
+     */
+    private static AudioRingBuffer syntheticWindow(int length) {
+        // Twice the window: a read needs one write of headroom, see AudioRingBuffer#isIntact.
+        AudioRingBuffer ring = new AudioRingBuffer(length * 2);
+        short[] samples = new short[length];
+        Random random = new Random(length);
+        for (int i = 0; i < samples.length; ++i) {
+            samples[i] = (short) (random.nextGaussian() * 1000);
+        }
+        ring.write(samples, 0, samples.length);
+        return ring;
+    }
+
+    private static String format(Choice choice) {
+        return choice.numThreads + "," + choice.useNNAPI + "," + choice.p95Nanos + "," + choice.cpuNanos;
+    }
+
+    private static Choice parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] fields = text.split(",");
+        if (fields.length != 4) {
+            return null;
+        }
+        try {
+            int threads = Integer.parseInt(fields[0]);
+            if (threads < 1) {
+                return null;
+            }
+            return new Choice(threads, Boolean.parseBoolean(fields[1]), Long.parseLong(fields[2]),
+                Long.parseLong(fields[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
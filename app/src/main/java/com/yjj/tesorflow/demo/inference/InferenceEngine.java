@@ -0,0 +1,430 @@
+package com.yjj.tesorflow.demo.inference;
+
+import com.yjj.tesorflow.demo.audio.AudioRingBuffer;
+import com.yjj.tesorflow.demo.audio.FeatureFrontend;
+import com.yjj.tesorflow.demo.audio.FrontendConfig;
+import com.yjj.tesorflow.demo.audio.PcmConverter;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * tensorflow lite 推理引擎
+ * <p>
+ * Owns the {@link Interpreter} together with preallocated native-order direct input and output
+ * buffers, so a call to {@link #run} allocates nothing and TFLite can copy the tensors in bulk
+ * instead of walking Java arrays element by element. Inference is synchronized on the engine, which
+ * makes it safe to drive from any thread. Thread count and NNAPI changes are only recorded when
+ * requested and applied by the next inference before it starts, so a caller never waits for the
+ * inference in progress and the interpreter is never reconfigured mid-run.
+ * <p>
+ * Waveform models take {@code [samples, 1]} audio plus the sample rate. Feature models have a single
+ * input holding log-mel or MFCC frames; for those the engine owns a {@link FeatureFrontend} and fills
+ * the input tensor from it, whatever the tensor's rank, as long as the element count matches.
+ * <p>
+ * The input and output tensor types are read at load time. For uint8/int8/int16 waveform inputs the
+ * samples go through a {@link TensorQuantization} lookup table straight into the input buffer, with
+ * no float step; quantized feature inputs are quantized after the frontend. Quantized outputs are
+ * dequantized into the float scores the smoother expects.
+ */
+public class InferenceEngine {
+    private static final int FLOAT_BYTES = 4;
+    private static final int INT_BYTES = 4;
+    private static final int NO_CHANGE = -1;
+
+    private final Interpreter interpreter;
+    private final int inputLength;
+    private final int labelCount;
+    private final int batchSize;
+    private final FeatureFrontend frontend;
+    private final int inputElements;
+    private final TensorQuantization inputQuantization;
+    private final TensorQuantization outputQuantization;
+    private final byte[] inputByteTable;
+    private final short[] inputShortTable;
+
+    private final ByteBuffer inputBuffer;
+    /**
+     * View of the float input tensor, or for a quantized feature model the frontend's scratch; null
+     * for quantized waveform models.
+     */
+    private final FloatBuffer inputFloats;
+    private final ByteBuffer sampleRateBuffer;
+    private final ByteBuffer outputBuffer;
+    private final FloatBuffer outputFloats;
+    private final float[] scores;
+    private final Object[] inputs;
+    private final Map<Integer, Object> outputs = new HashMap<>(2);
+    private long lastInputSequence;
+    private long lastInputNanos;
+    private long lastInvokeNanos;
+    private boolean closed;
+    // Applied configuration, guarded by the engine's lock.
+    private int numThreads;
+    private boolean useNNAPI;
+    // Requested configuration, picked up by the next inference; NO_CHANGE when there is none.
+    private final AtomicInteger pendingNumThreads = new AtomicInteger(NO_CHANGE);
+    private final AtomicInteger pendingUseNNAPI = new AtomicInteger(NO_CHANGE);
+
+    /**
+     * @param model       model bytes, usually the buffer mapped by TensorModelFileUtils
+     * @param sampleRate  sample rate fed to the model's second input
+     * @param inputLength number of audio samples per inference
+     * @param labelCount  number of output scores
+     */
+    public InferenceEngine(ByteBuffer model, int sampleRate, int inputLength, int labelCount) {
+        this(model, sampleRate, inputLength, labelCount, 1, 1, null);
+    }
+
+    /**
+     * @param frontendConfig features the model was trained on, or null for a waveform model
+     */
+    public InferenceEngine(ByteBuffer model, int sampleRate, int inputLength, int labelCount,
+        FrontendConfig frontendConfig) {
+        this(model, sampleRate, inputLength, labelCount, 1, 1, frontendConfig);
+    }
+
+    /**
+     * @param numThreads number of threads this interpreter may use for one inference
+     */
+    public InferenceEngine(ByteBuffer model, int sampleRate, int inputLength, int labelCount, int numThreads) {
+        this(model, sampleRate, inputLength, labelCount, numThreads, 1, null);
+    }
+
+    /**
+     * @param maxBatchSize windows to stack into one invocation if the model has a batch dimension
+     *                     ({@code [batch, samples, 1]} input); otherwise the engine falls back to 1
+     */
+    public InferenceEngine(ByteBuffer model, int sampleRate, int inputLength, int labelCount, int numThreads,
+        int maxBatchSize) {
+        this(model, sampleRate, inputLength, labelCount, numThreads, maxBatchSize, null);
+    }
+
+    private InferenceEngine(ByteBuffer model, int sampleRate, int inputLength, int labelCount, int numThreads,
+        int maxBatchSize, FrontendConfig frontendConfig) {
+        this.inputLength = inputLength;
+        this.labelCount = labelCount;
+        this.numThreads = numThreads;
+        interpreter = new Interpreter(model, new Interpreter.Options().setNumThreads(numThreads));
+        // Nothing below may leak the native interpreter, whichever check or allocation fails.
+        try {
+            if (frontendConfig != null) {
+                if (interpreter.getInputTensorCount() != 1) {
+                    throw new IllegalArgumentException(
+                        "feature frontend needs a single-input model, not " + interpreter.getInputTensorCount());
+                }
+                frontend = new FeatureFrontend(frontendConfig, inputLength);
+                batchSize = 1;
+                inputElements = frontend.getFeatureCount();
+                int tensorElements = elementCount(interpreter.getInputTensor(0).shape());
+                if (tensorElements != inputElements) {
+                    throw new IllegalArgumentException("model takes " + tensorElements + " input values, the "
+                        + "frontend makes " + frontend.getFrameCount() + "x" + frontend.getFeatureSize());
+                }
+            } else {
+                frontend = null;
+                if (maxBatchSize > 1 && interpreter.getInputTensor(0).numDimensions() == 3) {
+                    batchSize = maxBatchSize;
+                    resizeInputIfNeeded(0, new int[] { batchSize, inputLength, 1 });
+                } else {
+                    batchSize = 1;
+                    resizeInputIfNeeded(0, new int[] { inputLength, 1 });
+                }
+                resizeInputIfNeeded(1, new int[] { 1 });
+                inputElements = inputLength;
+            }
+            inputQuantization = TensorQuantization.of(interpreter.getInputTensor(0));
+            outputQuantization = TensorQuantization.of(interpreter.getOutputTensor(0));
+
+            if (inputQuantization == null) {
+                inputBuffer =
+                    ByteBuffer.allocateDirect(batchSize * inputElements * FLOAT_BYTES).order(ByteOrder.nativeOrder());
+                inputFloats = inputBuffer.asFloatBuffer();
+                inputByteTable = null;
+                inputShortTable = null;
+            } else {
+                inputBuffer = ByteBuffer.allocateDirect(batchSize * inputElements * inputQuantization.bytesPerValue())
+                    .order(ByteOrder.nativeOrder());
+                if (frontend != null) {
+                    inputFloats = FloatBuffer.allocate(inputElements);
+                    inputByteTable = null;
+                    inputShortTable = null;
+                } else {
+                    inputFloats = null;
+                    boolean wide = inputQuantization.bytesPerValue() == 2;
+                    inputByteTable = wide ? null : inputQuantization.buildPcmByteTable();
+                    inputShortTable = wide ? inputQuantization.buildPcmShortTable() : null;
+                }
+            }
+            sampleRateBuffer = ByteBuffer.allocateDirect(INT_BYTES).order(ByteOrder.nativeOrder());
+            sampleRateBuffer.putInt(0, sampleRate);
+            int outputBytes = outputQuantization == null ? FLOAT_BYTES : outputQuantization.bytesPerValue();
+            outputBuffer =
+                ByteBuffer.allocateDirect(batchSize * labelCount * outputBytes).order(ByteOrder.nativeOrder());
+            outputFloats = outputQuantization == null ? outputBuffer.asFloatBuffer() : null;
+            scores = new float[batchSize * labelCount];
+
+            inputs = frontend != null ? new Object[] { inputBuffer } : new Object[] { inputBuffer, sampleRateBuffer };
+            outputs.put(0, outputBuffer);
+        } catch (RuntimeException | Error e) {
+            interpreter.close();
+            throw e;
+        }
+    }
+
+    private static int elementCount(int[] shape) {
+        int count = 1;
+        for (int dim : shape) {
+            count *= dim;
+        }
+        return count;
+    }
+
+    /**
+     * Resizing forces the interpreter to reallocate its tensors, so skip it when the model was
+     * exported with the shape already.
+     */
+    private void resizeInputIfNeeded(int index, int[] shape) {
+        if (!Arrays.equals(interpreter.getInputTensor(index).shape(), shape)) {
+            interpreter.resizeInput(index, shape);
+        }
+    }
+
+    /**
+     * Runs the model on the latest {@code inputLength} samples of {@code ring}, normalized straight
+     * into the input tensor buffer, or turned into features with only the new frames computed. Only
+     * for engines with a batch size of 1.
+     *
+     * @return the output scores; the array is reused by the next call
+     */
+    public synchronized float[] run(AudioRingBuffer ring) {
+        checkNotClosed();
+        if (batchSize != 1) {
+            throw new IllegalStateException("live audio needs an engine with batch size 1, not " + batchSize);
+        }
+        long startNanos = System.nanoTime();
+        if (frontend != null) {
+            lastInputSequence = frontend.computeLatest(ring, inputFloats);
+            if (inputQuantization != null) {
+                inputQuantization.quantize(inputFloats, inputElements, inputBuffer);
+            }
+        } else if (inputByteTable != null) {
+            lastInputSequence = PcmConverter.convertLatest(ring, inputLength, inputBuffer, inputByteTable);
+        } else if (inputShortTable != null) {
+            lastInputSequence = PcmConverter.convertLatest(ring, inputLength, inputBuffer, inputShortTable);
+        } else {
+            lastInputSequence = PcmConverter.convertLatest(ring, inputLength, inputFloats);
+        }
+        lastInputNanos = System.nanoTime() - startNanos;
+        return invoke();
+    }
+
+    /**
+     * Runs the model once on a window of silence, so the interpreter's lazy allocations and any
+     * pending configuration (NNAPI compiles the model here) are done before the first live window.
+     */
+    public void warmUp() {
+        if (batchSize != 1) {
+            return;
+        }
+        // Twice the window: a read needs one write of headroom, see AudioRingBuffer#isIntact.
+        AudioRingBuffer silence = new AudioRingBuffer(inputLength * 2);
+        silence.write(new short[inputLength], 0, inputLength);
+        run(silence);
+    }
+
+    /**
+     * Runs the model on up to {@link #getBatchSize()} windows of {@code pcm} in one invocation.
+     *
+     * @param windowStarts absolute sample index where each window starts
+     * @param count        number of windows to run
+     * @return scores for window {@code b} at {@code [b * labelCount, (b + 1) * labelCount)}; reused by
+     * the next call
+     */
+    public synchronized float[] runBatch(ShortBuffer pcm, int[] windowStarts, int count) {
+        checkNotClosed();
+        if (count > batchSize) {
+            throw new IllegalArgumentException(count + " windows exceed batch size " + batchSize);
+        }
+        for (int b = 0; b < count; ++b) {
+            if (frontend != null) {
+                frontend.compute(pcm, windowStarts[b], inputFloats, 0);
+                if (inputQuantization != null) {
+                    inputQuantization.quantize(inputFloats, inputElements, inputBuffer);
+                }
+            } else if (inputByteTable != null) {
+                PcmConverter.convert(pcm, windowStarts[b], inputLength, inputBuffer, b * inputLength, inputByteTable);
+            } else if (inputShortTable != null) {
+                PcmConverter.convert(pcm, windowStarts[b], inputLength, inputBuffer, b * inputLength, inputShortTable);
+            } else {
+                PcmConverter.convert(pcm, windowStarts[b], inputLength, inputFloats, b * inputLength);
+            }
+        }
+        return invoke();
+    }
+
+    private float[] invoke() {
+        applyPendingConfig();
+        long startNanos = System.nanoTime();
+        inputBuffer.rewind();
+        sampleRateBuffer.rewind();
+        outputBuffer.rewind();
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+        if (outputQuantization == null) {
+            outputFloats.rewind();
+            outputFloats.get(scores);
+        } else {
+            outputQuantization.dequantize(outputBuffer, scores);
+        }
+        lastInvokeNanos = System.nanoTime() - startNanos;
+        return scores;
+    }
+
+    /**
+     * Requests a thread count for the following inferences. Returns immediately; the change takes
+     * effect at the start of the next inference.
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("thread count must be positive: " + numThreads);
+        }
+        pendingNumThreads.set(numThreads);
+    }
+
+    /**
+     * Requests NNAPI on or off for the following inferences, applied like {@link #setNumThreads}.
+     */
+    public void setUseNNAPI(boolean useNNAPI) {
+        pendingUseNNAPI.set(useNNAPI ? 1 : 0);
+    }
+
+    /**
+     * @return the requested thread count, or the applied one when nothing is pending
+     */
+    public int getNumThreads() {
+        int pending = pendingNumThreads.get();
+        if (pending != NO_CHANGE) {
+            return pending;
+        }
+        synchronized (this) {
+            return numThreads;
+        }
+    }
+
+    public boolean isUseNNAPI() {
+        int pending = pendingUseNNAPI.get();
+        if (pending != NO_CHANGE) {
+            return pending == 1;
+        }
+        synchronized (this) {
+            return useNNAPI;
+        }
+    }
+
+    /**
+     * Called with the engine's lock held, between inferences.
+     */
+    private void applyPendingConfig() {
+        int threads = pendingNumThreads.getAndSet(NO_CHANGE);
+        if (threads != NO_CHANGE && threads != numThreads) {
+            interpreter.setNumThreads(threads);
+            numThreads = threads;
+        }
+        int nnapi = pendingUseNNAPI.getAndSet(NO_CHANGE);
+        if (nnapi != NO_CHANGE && (nnapi == 1) != useNNAPI) {
+            useNNAPI = nnapi == 1;
+            interpreter.setUseNNAPI(useNNAPI);
+        }
+    }
+
+    /**
+     * Ring sequence just past the last sample fed to the model.
+     */
+    public synchronized long getLastInputSequence() {
+        return lastInputSequence;
+    }
+
+    /**
+     * Time the last {@link #run} spent filling the input tensor from the ring, including feature
+     * extraction for feature models.
+     */
+    public synchronized long getLastInputNanos() {
+        return lastInputNanos;
+    }
+
+    /**
+     * Time the last run spent inside the interpreter, including reading back the scores.
+     */
+    public synchronized long getLastInvokeNanos() {
+        return lastInvokeNanos;
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    public int getLabelCount() {
+        return labelCount;
+    }
+
+    /**
+     * @return 输入的量化参数, float输入为null
+     */
+    public TensorQuantization getInputQuantization() {
+        return inputQuantization;
+    }
+
+    /**
+     * @return 输出的量化参数, float输出为null
+     */
+    public TensorQuantization getOutputQuantization() {
+        return outputQuantization;
+    }
+
+    /**
+     * @return the feature frontend, null for waveform models
+     */
+    public FeatureFrontend getFrontend() {
+        return frontend;
+    }
+
+    /**
+     * Number of windows one invocation processes; always 1 for models without a batch dimension.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Releases the native interpreter. Waits for an inference in progress on another thread.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        interpreter.close();
+    }
+
+    /**
+     * Whether {@link #close} has run, to tell a closed engine apart from other failures.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("InferenceEngine has been closed");
+        }
+    }
+}
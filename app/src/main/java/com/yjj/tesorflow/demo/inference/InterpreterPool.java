@@ -0,0 +1,249 @@
+package com.yjj.tesorflow.demo.inference;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 推理引擎池
+ * <p>
+ * A single {@link InferenceEngine} serializes every caller, so streams that should run in parallel
+ * (several microphones, recorded files in a batch job) borrow their own engine from here. All engines
+ * share the one mapped model buffer, which TFLite only reads, so each extra engine costs its
+ * interpreter arena rather than another copy of the model. Engines are created lazily up to
+ * {@code maxSize}; once they are all borrowed, {@link #acquire} blocks, which pushes back on the
+ * producers instead of oversubscribing the cores.
+ */
+public class InterpreterPool {
+    private final ByteBuffer model;
+    private final int sampleRate;
+    private final int inputLength;
+    private final int labelCount;
+    private final int threadsPerInterpreter;
+    private final int maxBatchSize;
+    private final int maxSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signalled whenever an idle engine or a creation slot may have become free, or the pool closed.
+     */
+    private final Condition available = lock.newCondition();
+    // Guarded by lock.
+    private final ArrayDeque<InferenceEngine> idle;
+    private int created;
+    private boolean closed;
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicLong waitedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    /**
+     * @param model                 the buffer returned by TensorModelFileUtils.loadModelFile, shared by
+     *                              every engine as-is (a duplicate would lose its native byte order)
+     * @param maxSize               most engines alive at once
+     * @param threadsPerInterpreter threads each engine may use, e.g. cores / maxSize
+     */
+    public InterpreterPool(ByteBuffer model, int sampleRate, int inputLength, int labelCount, int maxSize,
+        int threadsPerInterpreter) {
+        this(model, sampleRate, inputLength, labelCount, maxSize, threadsPerInterpreter, 1);
+    }
+
+    /**
+     * @param maxBatchSize windows per invocation for models with a batch dimension, see
+     *                     {@link InferenceEngine#getBatchSize()}
+     */
+    public InterpreterPool(ByteBuffer model, int sampleRate, int inputLength, int labelCount, int maxSize,
+        int threadsPerInterpreter, int maxBatchSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("pool size must be positive: " + maxSize);
+        }
+        this.model = model;
+        this.sampleRate = sampleRate;
+        this.inputLength = inputLength;
+        this.labelCount = labelCount;
+        this.maxSize = maxSize;
+        this.threadsPerInterpreter = threadsPerInterpreter;
+        this.maxBatchSize = maxBatchSize;
+        idle = new ArrayDeque<>(maxSize);
+    }
+
+    /**
+     * Borrows an engine, creating one if the pool is not full yet, otherwise waiting for one to be
+     * released. Every successful call must be paired with {@link #release}.
+     *
+     * @throws TimeoutException if no engine became free in time
+     */
+    public InferenceEngine acquire(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long remainingNanos = unit.toNanos(timeout);
+        boolean waited = false;
+        lock.lock();
+        try {
+            // Re-checked after every wake-up: a release, a failed creation and close() all signal.
+            for (; ; ) {
+                InferenceEngine engine = takeIdle();
+                if (engine != null) {
+                    return engine;
+                }
+                if (created < maxSize) {
+                    break;
+                }
+                if (!waited) {
+                    waited = true;
+                    waitedCount.incrementAndGet();
+                }
+                if (remainingNanos <= 0) {
+                    timeoutCount.incrementAndGet();
+                    throw new TimeoutException("all " + maxSize + " interpreters are busy");
+                }
+                remainingNanos = available.awaitNanos(remainingNanos);
+            }
+            created++;
+        } finally {
+            lock.unlock();
+        }
+        return create();
+    }
+
+    /**
+     * Borrows an engine without waiting.
+     *
+     * @return an engine, or null if all of them are in use
+     */
+    public InferenceEngine tryAcquire() {
+        lock.lock();
+        try {
+            InferenceEngine engine = takeIdle();
+            if (engine != null) {
+                return engine;
+            }
+            if (created >= maxSize) {
+                return null;
+            }
+            created++;
+        } finally {
+            lock.unlock();
+        }
+        return create();
+    }
+
+    /**
+     * Takes an idle engine. Called with the lock held.
+     *
+     * @return null if none is idle
+     */
+    private InferenceEngine takeIdle() {
+        if (closed) {
+            throw new IllegalStateException("InterpreterPool has been closed");
+        }
+        InferenceEngine engine = idle.poll();
+        if (engine != null) {
+            acquiredCount.incrementAndGet();
+        }
+        return engine;
+    }
+
+    /**
+     * Builds the engine for a slot already counted in {@code created}, outside the lock since it
+     * parses the model and allocates the interpreter.
+     */
+    private InferenceEngine create() {
+        InferenceEngine engine;
+        try {
+            engine = new InferenceEngine(model, sampleRate, inputLength, labelCount, threadsPerInterpreter,
+                maxBatchSize);
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                created--;
+                // The slot is free again; a waiter may now create its own engine.
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+        acquiredCount.incrementAndGet();
+        return engine;
+    }
+
+    /**
+     * Hands a borrowed engine back. Engines returned after {@link #close} are closed instead.
+     */
+    public void release(InferenceEngine engine) {
+        if (engine == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!closed) {
+                idle.add(engine);
+                available.signal();
+                return;
+            }
+            created--;
+        } finally {
+            lock.unlock();
+        }
+        engine.close();
+    }
+
+    /**
+     * Closes the idle engines now and borrowed ones as they are released. Threads waiting in
+     * {@link #acquire} fail with {@link IllegalStateException}.
+     */
+    public void close() {
+        List<InferenceEngine> engines;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            engines = new ArrayList<>(idle);
+            idle.clear();
+            created -= engines.size();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (InferenceEngine engine : engines) {
+            engine.close();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Number of engines currently alive, borrowed or idle.
+     */
+    public int getCreatedCount() {
+        lock.lock();
+        try {
+            return created;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /**
+     * Number of acquisitions that found the pool exhausted and had to wait.
+     */
+    public long getWaitedCount() {
+        return waitedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+}
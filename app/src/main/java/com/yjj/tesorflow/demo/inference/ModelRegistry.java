@@ -0,0 +1,341 @@
+package com.yjj.tesorflow.demo.inference;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.yjj.tesorflow.demo.Constants;
+import com.yjj.tesorflow.demo.utils.ExecutorUtils;
+import com.yjj.tesorflow.demo.utils.FileUtils;
+import com.yjj.tesorflow.demo.utils.LabelTable;
+import com.yjj.tesorflow.demo.utils.ModelDiskCache;
+import com.yjj.tesorflow.demo.utils.ModelManifest;
+import com.yjj.tesorflow.demo.utils.ModelSidecar;
+import com.yjj.tesorflow.demo.utils.TensorModelFileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 多模型注册表与已加载解释器缓存
+ * <p>
+ * Maps a model id and version to its install directory, labels and mapped buffer, and keeps the
+ * {@link InferenceEngine}s of recently used models alive in an LRU bounded by their total mapped
+ * bytes. Switching back to a cached model skips the remap, the checksum and the interpreter init.
+ * Requests for a model that is still loading wait for that load instead of starting another.
+ * Models are reference counted: only models nobody holds are evicted, and eviction closes the engine.
+ * The mapping itself is released by the GC once nothing references the buffer.
+ */
+public class ModelRegistry {
+    private static final String TAG = "ModelRegistry";
+    public static final long DEFAULT_MAX_MAPPED_BYTES = 64L * 1024 * 1024;
+
+    private final Context context;
+    private final ModelDiskCache diskCache;
+    private final EngineTuner tuner;
+    private final int sampleRate;
+    private final int inputLength;
+    private final long maxMappedBytes;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<String, ModelSpec> specs = new HashMap<>();
+    /**
+     * Callbacks waiting on a load in progress, keyed like the cache.
+     */
+    private final Map<String, List<LoadCallback>> pending = new HashMap<>();
+    /**
+     * Access-ordered, so iteration starts at the least recently used model.
+     */
+    private final LinkedHashMap<String, LoadedModel> cache = new LinkedHashMap<>(8, 0.75f, true);
+    private long mappedBytes;
+    private boolean closed;
+
+    public interface LoadCallback {
+        /**
+         * @param model 已持有的模型, 用完后{@link #release}; 加载失败时为null
+         */
+        void onLoad(LoadedModel model);
+    }
+
+    public static class LoadedModel {
+        private final ModelSpec spec;
+        private final File dir;
+        private final LabelTable labelTable;
+        private final ByteBuffer model;
+        private final InferenceEngine engine;
+        private int refCount;
+
+        LoadedModel(ModelSpec spec, TensorModelFileUtils.ModelFiles files, InferenceEngine engine) {
+            this.spec = spec;
+            this.dir = files.dir;
+            // Built here, on the loading thread, rather than by whoever shows the results.
+            this.labelTable = LabelTable.build(files.labels);
+            this.model = files.model;
+            this.engine = engine;
+        }
+
+        public ModelSpec getSpec() {
+            return spec;
+        }
+
+        public File getDir() {
+            return dir;
+        }
+
+        public List<String> getLabels() {
+            return labelTable.getLabels();
+        }
+
+        public LabelTable getLabelTable() {
+            return labelTable;
+        }
+
+        public ByteBuffer getModel() {
+            return model;
+        }
+
+        public InferenceEngine getEngine() {
+            return engine;
+        }
+
+        public long getMappedBytes() {
+            return model.capacity();
+        }
+    }
+
+    /**
+     * @param sampleRate     sample rate fed to every engine
+     * @param inputLength    audio samples per inference
+     * @param maxMappedBytes budget for the mapped models of idle cached engines
+     */
+    public ModelRegistry(Context context, int sampleRate, int inputLength, long maxMappedBytes) {
+        this.context = context.getApplicationContext();
+        this.diskCache = ModelDiskCache.getInstance(context);
+        this.tuner = new EngineTuner(context);
+        this.sampleRate = sampleRate;
+        this.inputLength = inputLength;
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * 注册后模型的安装目录不再被磁盘缓存淘汰, 即使还没有加载
+     */
+    public synchronized void register(ModelSpec spec) {
+        ModelSpec old = specs.put(spec.getKey(), spec);
+        if (old != null) {
+            diskCache.unpin(FileUtils.getModelPath(context, old.url));
+        }
+        // A trim between the install and the first load would otherwise delete a model still to be used.
+        diskCache.pin(FileUtils.getModelPath(context, spec.url));
+    }
+
+    public synchronized ModelSpec getSpec(String id, int version) {
+        return specs.get(ModelSpec.key(id, version));
+    }
+
+    public synchronized List<ModelSpec> getSpecs() {
+        return new ArrayList<>(specs.values());
+    }
+
+    /**
+     * 已缓存时直接持有并返回, 否则返回null
+     */
+    public synchronized LoadedModel acquireIfCached(String id, int version) {
+        LoadedModel model = cache.get(ModelSpec.key(id, version));
+        if (model != null) {
+            model.refCount++;
+        }
+        return model;
+    }
+
+    /**
+     * 持有模型, 未缓存时在I/O线程映射并创建解释器; 主线程回调
+     */
+    public void acquire(String id, int version, LoadCallback callback) {
+        request(id, version, callback);
+    }
+
+    /**
+     * 提前加载到缓存但不持有, 之后的{@link #acquire}会等待这次加载而不是重新加载
+     */
+    public void preload(String id, int version) {
+        request(id, version, null);
+    }
+
+    private void request(String id, int version, final LoadCallback callback) {
+        final ModelSpec spec = getSpec(id, version);
+        if (spec == null) {
+            throw new IllegalArgumentException("model " + ModelSpec.key(id, version) + " is not registered");
+        }
+        LoadedModel cached;
+        boolean start = false;
+        synchronized (this) {
+            cached = cache.get(spec.getKey());
+            if (cached == null) {
+                List<LoadCallback> waiting = pending.get(spec.getKey());
+                if (waiting == null) {
+                    waiting = new ArrayList<>(1);
+                    pending.put(spec.getKey(), waiting);
+                    start = true;
+                }
+                if (callback != null) {
+                    waiting.add(callback);
+                }
+            } else if (callback != null) {
+                cached.refCount++;
+            }
+        }
+        if (cached != null) {
+            if (callback != null) {
+                mainHandler.post(() -> callback.onLoad(cached));
+            }
+            return;
+        }
+        if (start) {
+            ExecutorUtils.executeIo(ExecutorUtils.PRIORITY_HIGH, () -> load(spec));
+        }
+    }
+
+    private void load(ModelSpec spec) {
+        long startNanos = System.nanoTime();
+        LoadedModel loaded = null;
+        TensorModelFileUtils.ModelFiles files = TensorModelFileUtils.load(context, spec.url);
+        if (files != null) {
+            InferenceEngine engine = null;
+            try {
+                engine = new InferenceEngine(files.model, sampleRate, inputLength, files.labels.size(),
+                    spec.frontend);
+                // Calibrates once per model and device; after that it's a preference lookup.
+                tuner.tune(engine, modelHash(spec, files));
+                // A model swapped into a running pipeline must not stall its first window.
+                engine.warmUp();
+                loaded = new LoadedModel(spec, files, engine);
+                if (files.sidecar == null) {
+                    writeSidecar(files);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "can't create interpreter for " + spec, e);
+                // Tuning, warm-up or the label table failed after the native interpreter was built.
+                if (engine != null) {
+                    engine.close();
+                }
+                loaded = null;
+            }
+        }
+        if (loaded != null) {
+            Log.i(TAG, spec + " ready in " + (System.nanoTime() - startNanos) / 1000000 + " ms ("
+                + (files.sidecar != null ? "warm" : "cold") + ")");
+        }
+
+        List<LoadCallback> waiting;
+        List<LoadedModel> evicted = new ArrayList<>(1);
+        synchronized (this) {
+            waiting = pending.remove(spec.getKey());
+            if (loaded != null && closed) {
+                evicted.add(loaded);
+                loaded = null;
+            } else if (loaded != null) {
+                cache.put(spec.getKey(), loaded);
+                // Its files stay on disk for as long as the engine is cached.
+                diskCache.pin(loaded.dir);
+                mappedBytes += loaded.getMappedBytes();
+                loaded.refCount += waiting.size();
+                evicted = trim();
+            }
+        }
+        closeAll(evicted);
+        final LoadedModel result = loaded;
+        for (final LoadCallback callback : waiting) {
+            mainHandler.post(() -> callback.onLoad(result));
+        }
+    }
+
+    /**
+     * 模型文件的md5, 取自安装清单; 清单不可读时退回到模型描述加大小
+     */
+    private static String modelHash(ModelSpec spec, TensorModelFileUtils.ModelFiles files) {
+        ModelManifest manifest = ModelManifest.read(new File(files.dir, Constants.INDEX_NAME));
+        ModelManifest.Entry entry = manifest == null ? null : manifest.get(files.modelName);
+        return entry != null ? entry.md5 : spec.getKey() + ":" + files.model.capacity();
+    }
+
+    /**
+     * 记录冷启动时发现的信息, 下次启动直接使用
+     */
+    private static void writeSidecar(TensorModelFileUtils.ModelFiles files) {
+        try {
+            new ModelSidecar(files.dir, files.modelName, 0, files.model.capacity(), files.labels).write(files.dir);
+        } catch (IOException e) {
+            Log.w(TAG, "can't write sidecar to " + files.dir, e);
+        }
+    }
+
+    /**
+     * 释放持有, 超出预算时淘汰最久未用的空闲模型
+     */
+    public void release(LoadedModel model) {
+        List<LoadedModel> evicted;
+        synchronized (this) {
+            if (model.refCount > 0) {
+                model.refCount--;
+            }
+            evicted = trim();
+        }
+        closeAll(evicted);
+    }
+
+    private List<LoadedModel> trim() {
+        List<LoadedModel> evicted = new ArrayList<>(1);
+        Iterator<LoadedModel> iterator = cache.values().iterator();
+        while (mappedBytes > maxMappedBytes && iterator.hasNext()) {
+            LoadedModel model = iterator.next();
+            if (model.refCount == 0) {
+                iterator.remove();
+                mappedBytes -= model.getMappedBytes();
+                diskCache.unpin(model.dir);
+                evicted.add(model);
+            }
+        }
+        return evicted;
+    }
+
+    private void closeAll(List<LoadedModel> models) {
+        for (LoadedModel model : models) {
+            model.engine.close();
+        }
+    }
+
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    public synchronized int getCachedCount() {
+        return cache.size();
+    }
+
+    /**
+     * 关闭所有缓存的解释器, 之后加载的模型会被直接关闭
+     */
+    public void close() {
+        List<LoadedModel> models;
+        synchronized (this) {
+            closed = true;
+            models = new ArrayList<>(cache.values());
+            for (LoadedModel model : models) {
+                diskCache.unpin(model.dir);
+            }
+            cache.clear();
+            mappedBytes = 0;
+        }
+        closeAll(models);
+    }
+}
@@ -0,0 +1,45 @@
+package com.yjj.tesorflow.demo.inference;
+
+import com.yjj.tesorflow.demo.audio.FrontendConfig;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 模型描述: id + 版本 + 下载地址
+ * <p>
+ * Each version has its own download URL, and the install directory is derived from it, so two
+ * versions of one model never share files. A model trained on log-mel or MFCC features also
+ * carries the {@link FrontendConfig} that produces them.
+ */
+public class ModelSpec {
+    public final String id;
+    public final int version;
+    public final String url;
+    /**
+     * 特征提取参数, 输入原始波形的模型为null
+     */
+    public final FrontendConfig frontend;
+
+    public ModelSpec(String id, int version, String url) {
+        this(id, version, url, null);
+    }
+
+    public ModelSpec(String id, int version, String url, FrontendConfig frontend) {
+        this.id = id;
+        this.version = version;
+        this.url = url;
+        this.frontend = frontend;
+    }
+
+    public String getKey() {
+        return key(id, version);
+    }
+
+    static String key(String id, int version) {
+        return id + "@" + version;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
@@ -0,0 +1,257 @@
+package com.yjj.tesorflow.demo.inference;
+
+import com.yjj.tesorflow.demo.RecognizeCommands;
+import com.yjj.tesorflow.demo.audio.PcmFile;
+import com.yjj.tesorflow.demo.utils.LabelTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 离线批量识别
+ * <p>
+ * Runs the keyword model over recorded 16 kHz PCM/WAV files so DETECTION_THRESHOLD and SUPPRESSION_MS
+ * can be tuned against field audio. Each file is memory-mapped, sliced into windows every
+ * {@code hopSamples}, run through an engine borrowed from the pool (several windows per invocation
+ * when the model has a batch dimension) and smoothed by its own {@link RecognizeCommands}, with
+ * timestamps taken from the audio position rather than the wall clock. Each file is split into
+ * segments that are scored in parallel on separate pooled engines, so even a single long recording
+ * uses the whole pool; the scores are then fed to the file's smoother in time order. Every detection
+ * is appended to a tab-separated log: {@code file, time ms, label, score}. Per-label settings in the
+ * label file take precedence over the two defaults.
+ */
+public class OfflineRecognizer {
+    private static final long ACQUIRE_TIMEOUT_MINUTES = 10;
+    /**
+     * Windows scored per engine acquisition; a few seconds of audio at the usual hops, so a long file
+     * spreads over every engine while a short one stays in a single segment.
+     */
+    static final int SEGMENT_WINDOWS = 256;
+
+    private final InterpreterPool pool;
+    private final LabelTable labels;
+    private final int sampleRate;
+    private final int windowLength;
+    private final int hopSamples;
+    private final long averageWindowDurationMs;
+    private final float detectionThreshold;
+    private final int suppressionMs;
+    private final int minimumCount;
+
+    public OfflineRecognizer(InterpreterPool pool, List<String> labels, int sampleRate, int windowLength,
+        int hopSamples, long averageWindowDurationMs, float detectionThreshold, int suppressionMs, int minimumCount) {
+        if (hopSamples <= 0) {
+            throw new IllegalArgumentException("hop must be positive: " + hopSamples);
+        }
+        this.pool = pool;
+        this.labels = LabelTable.build(labels);
+        this.sampleRate = sampleRate;
+        this.windowLength = windowLength;
+        this.hopSamples = hopSamples;
+        this.averageWindowDurationMs = averageWindowDurationMs;
+        this.detectionThreshold = detectionThreshold;
+        this.suppressionMs = suppressionMs;
+        this.minimumCount = minimumCount;
+    }
+
+    /**
+     * Recognizes every file and blocks until done. Files are split into segments of
+     * {@link #SEGMENT_WINDOWS} windows, scored on up to {@link InterpreterPool#getMaxSize()} engines at
+     * once, and each file's scores are smoothed on the calling thread in time order.
+     *
+     * @param detectionLog receives one line per detection, in file and time order
+     */
+    public Report recognize(List<File> files, Writer detectionLog) throws IOException, InterruptedException {
+        Report report = new Report();
+        int threads = pool.getMaxSize();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // Enough queued to keep every engine busy while the oldest segment is smoothed, and no more,
+        // so the scores held in memory stay bounded however long the files are.
+        int maxInFlight = 2 * threads;
+        ArrayDeque<Segment> inFlight = new ArrayDeque<>(maxInFlight);
+        long startNanos = System.nanoTime();
+        try {
+            for (File file : files) {
+                FileRun run = new FileRun(file);
+                report.audioSamples.addAndGet(run.sampleCount);
+                for (int first = 0; first < run.windowCount; first += SEGMENT_WINDOWS) {
+                    if (inFlight.size() >= maxInFlight) {
+                        smooth(inFlight.poll(), detectionLog, report);
+                    }
+                    inFlight.add(submit(executor, run, first, Math.min(SEGMENT_WINDOWS, run.windowCount - first)));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                smooth(inFlight.poll(), detectionLog, report);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        report.wallNanos = System.nanoTime() - startNanos;
+        detectionLog.flush();
+        return report;
+    }
+
+    /**
+     * One file being recognized: its samples and the smoothing state its segments are fed into.
+     */
+    private class FileRun {
+        final File file;
+        final ShortBuffer samples;
+        final int sampleCount;
+        final int windowCount;
+        final RecognizeCommands recognizeCommands;
+
+        FileRun(File file) throws IOException {
+            PcmFile pcmFile = PcmFile.open(file, sampleRate);
+            this.file = file;
+            this.samples = pcmFile.getSamples();
+            this.sampleCount = pcmFile.getSampleCount();
+            // A file shorter than one window still gets one, padded with silence.
+            this.windowCount = Math.max(0, sampleCount - windowLength) / hopSamples + 1;
+            this.recognizeCommands = new RecognizeCommands(labels, averageWindowDurationMs, detectionThreshold,
+                suppressionMs, minimumCount, hopSamples * 1000L / sampleRate);
+        }
+    }
+
+    private static class Segment {
+        final FileRun run;
+        final int firstWindow;
+        final int windowCount;
+        final Future<float[]> scores;
+
+        Segment(FileRun run, int firstWindow, int windowCount, Future<float[]> scores) {
+            this.run = run;
+            this.firstWindow = firstWindow;
+            this.windowCount = windowCount;
+            this.scores = scores;
+        }
+    }
+
+    private Segment submit(ExecutorService executor, FileRun run, int firstWindow, int windowCount) {
+        // Each segment reads through its own view of the shared mapping.
+        ShortBuffer samples = run.samples.duplicate();
+        Future<float[]> scores = executor.submit(() -> score(samples, firstWindow, windowCount));
+        return new Segment(run, firstWindow, windowCount, scores);
+    }
+
+    /**
+     * 在借来的引擎上计算一段窗口的分数
+     *
+     * @return {@code windowCount} rows of per-label scores
+     */
+    private float[] score(ShortBuffer samples, int firstWindow, int windowCount) throws Exception {
+        int labelCount = labels.size();
+        float[] segmentScores = new float[windowCount * labelCount];
+        InferenceEngine engine = pool.acquire(ACQUIRE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        try {
+            int batchSize = engine.getBatchSize();
+            int[] windowStarts = new int[batchSize];
+            int done = 0;
+            while (done < windowCount) {
+                int count = Math.min(batchSize, windowCount - done);
+                for (int b = 0; b < count; ++b) {
+                    windowStarts[b] = (firstWindow + done + b) * hopSamples;
+                }
+                float[] scores = engine.runBatch(samples, windowStarts, count);
+                System.arraycopy(scores, 0, segmentScores, done * labelCount, count * labelCount);
+                done += count;
+            }
+        } finally {
+            pool.release(engine);
+        }
+        return segmentScores;
+    }
+
+    /**
+     * 按时间顺序把一段的分数送入所属文件的平滑器
+     */
+    private void smooth(Segment segment, Writer detectionLog, Report report) throws IOException, InterruptedException {
+        float[] segmentScores;
+        try {
+            segmentScores = segment.scores.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+        FileRun run = segment.run;
+        int labelCount = labels.size();
+        float[] windowScores = new float[labelCount];
+        for (int w = 0; w < segment.windowCount; ++w) {
+            System.arraycopy(segmentScores, w * labelCount, windowScores, 0, labelCount);
+            long windowStart = (long) (segment.firstWindow + w) * hopSamples;
+            long timeMs = (windowStart + windowLength) * 1000L / sampleRate;
+            RecognizeCommands.RecognitionResult result =
+                run.recognizeCommands.processLatestResults(windowScores, timeMs);
+            if (result.isNewCommand && result.labelIndex >= 0 && !labels.isSpecial(result.labelIndex)) {
+                detectionLog.write(run.file.getName() + '\t' + timeMs + '\t' + result.foundCommand + '\t'
+                    + result.score + '\n');
+                report.detections.incrementAndGet();
+            }
+        }
+        report.windows.addAndGet(segment.windowCount);
+        if (segment.firstWindow + segment.windowCount == run.windowCount) {
+            report.files.incrementAndGet();
+        }
+    }
+
+    /**
+     * Totals for one {@link #recognize} call.
+     */
+    public class Report {
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong windows = new AtomicLong();
+        private final AtomicLong detections = new AtomicLong();
+        private final AtomicLong audioSamples = new AtomicLong();
+        private long wallNanos;
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getWindows() {
+            return windows.get();
+        }
+
+        public long getDetections() {
+            return detections.get();
+        }
+
+        public double getAudioSeconds() {
+            return (double) audioSamples.get() / sampleRate;
+        }
+
+        public double getWallSeconds() {
+            return wallNanos / 1e9;
+        }
+
+        /**
+         * Processing time over audio time; below 1 is faster than real time.
+         */
+        public double getRealTimeFactor() {
+            double audioSeconds = getAudioSeconds();
+            return audioSeconds > 0 ? getWallSeconds() / audioSeconds : 0;
+        }
+
+        @Override
+        public String toString() {
+            return files + " files, " + windows + " windows, " + detections + " detections, "
+                + String.format("%.1f s audio in %.1f s, RTF %.4f", getAudioSeconds(), getWallSeconds(),
+                getRealTimeFactor());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.yjj.tesorflow.demo.inference;
+
+import com.yjj.tesorflow.demo.audio.PcmConverter;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 量化张量的参数与换算
+ * <p>
+ * TFLite's affine quantization, {@code real = scale * (quantized - zeroPoint)}, for 8- and 16-bit
+ * tensors. There are only 65536 possible PCM16 samples, so the whole input conversion is folded
+ * into a lookup table built once at load time: {@code sample * PCM16_SCALE / scale + zeroPoint},
+ * rounded and clamped. Feeding a quantized model then costs one array lookup per sample, with no
+ * float math.
+ */
+public class TensorQuantization {
+    public final DataType type;
+    public final float scale;
+    public final int zeroPoint;
+    private final int min;
+    private final int max;
+
+    private TensorQuantization(DataType type, float scale, int zeroPoint) {
+        this.type = type;
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+        if (type == DataType.UINT8) {
+            min = 0;
+            max = 255;
+        } else if (type == DataType.INT8) {
+            min = Byte.MIN_VALUE;
+            max = Byte.MAX_VALUE;
+        } else {
+            min = Short.MIN_VALUE;
+            max = Short.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return 量化参数, float32张量返回null
+     */
+    static TensorQuantization of(Tensor tensor) {
+        DataType type = tensor.dataType();
+        if (type == DataType.FLOAT32) {
+            return null;
+        }
+        if (type != DataType.UINT8 && type != DataType.INT8 && type != DataType.INT16) {
+            throw new IllegalArgumentException("unsupported tensor type " + type);
+        }
+        Tensor.QuantizationParams params = tensor.quantizationParams();
+        if (params == null || params.getScale() <= 0) {
+            throw new IllegalArgumentException(type + " tensor has no quantization scale");
+        }
+        return new TensorQuantization(type, params.getScale(), params.getZeroPoint());
+    }
+
+    public int bytesPerValue() {
+        return type == DataType.INT16 ? 2 : 1;
+    }
+
+    public int quantize(float real) {
+        int q = Math.round(real / scale) + zeroPoint;
+        return q < min ? min : (q > max ? max : q);
+    }
+
+    public float dequantize(int quantized) {
+        return scale * (quantized - zeroPoint);
+    }
+
+    /**
+     * 8位输入的PCM查找表, 下标为{@code sample & 0xFFFF}
+     */
+    public byte[] buildPcmByteTable() {
+        byte[] table = new byte[65536];
+        for (int sample = Short.MIN_VALUE; sample <= Short.MAX_VALUE; ++sample) {
+            table[sample & 0xFFFF] = (byte) quantize(sample * PcmConverter.PCM16_SCALE);
+        }
+        return table;
+    }
+
+    /**
+     * 16位输入的PCM查找表, 下标为{@code sample & 0xFFFF}
+     */
+    public short[] buildPcmShortTable() {
+        short[] table = new short[65536];
+        for (int sample = Short.MIN_VALUE; sample <= Short.MAX_VALUE; ++sample) {
+            table[sample & 0xFFFF] = (short) quantize(sample * PcmConverter.PCM16_SCALE);
+        }
+        return table;
+    }
+
+    /**
+     * Quantizes {@code length} values of {@code src} into {@code dst}, both from absolute index 0.
+     */
+    public void quantize(FloatBuffer src, int length, ByteBuffer dst) {
+        if (type == DataType.INT16) {
+            for (int i = 0; i < length; ++i) {
+                dst.putShort(i * 2, (short) quantize(src.get(i)));
+            }
+        } else {
+            for (int i = 0; i < length; ++i) {
+                dst.put(i, (byte) quantize(src.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Dequantizes {@code dst.length} values of {@code src}, from absolute index 0, into {@code dst}.
+     */
+    public void dequantize(ByteBuffer src, float[] dst) {
+        if (type == DataType.INT16) {
+            for (int i = 0; i < dst.length; ++i) {
+                dst[i] = scale * (src.getShort(i * 2) - zeroPoint);
+            }
+        } else if (type == DataType.UINT8) {
+            for (int i = 0; i < dst.length; ++i) {
+                dst[i] = scale * ((src.get(i) & 0xFF) - zeroPoint);
+            }
+        } else {
+            for (int i = 0; i < dst.length; ++i) {
+                dst[i] = scale * (src.get(i) - zeroPoint);
+            }
+        }
+    }
+}
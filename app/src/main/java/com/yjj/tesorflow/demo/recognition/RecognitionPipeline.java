@@ -0,0 +1,404 @@
+package com.yjj.tesorflow.demo.recognition;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import com.yjj.tesorflow.demo.Constants;
+import com.yjj.tesorflow.demo.DemoApplication;
+import com.yjj.tesorflow.demo.RecognizeCommands;
+import com.yjj.tesorflow.demo.audio.AudioRingBuffer;
+import com.yjj.tesorflow.demo.audio.InferenceScheduler;
+import com.yjj.tesorflow.demo.audio.VoiceActivityDetector;
+import com.yjj.tesorflow.demo.event.EventBus;
+import com.yjj.tesorflow.demo.inference.InferenceEngine;
+import com.yjj.tesorflow.demo.inference.ModelRegistry;
+import com.yjj.tesorflow.demo.utils.LabelTable;
+import com.yjj.tesorflow.demo.utils.PipelineMetrics;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 录音 -> 推理 -> 平滑 的识别流水线, 不依赖界面
+ * <p>
+ * Owns the microphone, the recording ring, the model's engine and the {@link RecognizeCommands}
+ * smoother, and publishes detections and inference times on the {@link EventBus}. It runs on two threads. The
+ * recorder blocks in {@code AudioRecord.read} for one inference stride at a time. The recognizer
+ * parks on the ring until that stride has been written. Each stride therefore costs one wake-up on
+ * each thread, and nothing polls or sleeps.
+ * <p>
+ * {@link #swapModel} replaces the model without stopping either thread. The new engine is built
+ * and warmed elsewhere. The recognizer installs it between two inferences, re-dimensions the
+ * smoother for the new labels and hands the old model back. Capture never pauses, and the old
+ * engine is returned only once the recognizer can no longer be running it.
+ */
+public class RecognitionPipeline {
+    private static final String LOG_TAG = "RecognitionPipeline";
+
+    // Constants that control the behavior of the recognition code and model
+    // settings. See the audio recognition tutorial for a detailed explanation of
+    // all these, but you should customize them to match your training settings if
+    // you are running your own model.
+    private static final int SAMPLE_RATE = Constants.SAMPLE_RATE;
+    private static final int RECORDING_LENGTH = Constants.RECORDING_LENGTH;
+    private static final long AVERAGE_WINDOW_DURATION_MS = 1000;
+    private static final float DETECTION_THRESHOLD = 0.50f;
+    private static final int SUPPRESSION_MS = 1500;
+    private static final int MINIMUM_COUNT = 3;
+    private static final long MINIMUM_TIME_BETWEEN_SAMPLES_MS = 30;
+    // Run the model once per this many newly recorded samples, waiting at most
+    // MAXIMUM_INFERENCE_WAIT_MS so a slow trickle of audio can't delay detection.
+    private static final int INFERENCE_STRIDE_SAMPLES = (int) (SAMPLE_RATE * MINIMUM_TIME_BETWEEN_SAMPLES_MS / 1000);
+    private static final long MAXIMUM_INFERENCE_WAIT_MS = 250;
+    // Voice activity gate: below this energy the model isn't run at all and the
+    // smoother is fed silence instead. The hangover keeps the gate open for a
+    // whole window after the last voiced frame so words aren't cut off.
+    private static final int VAD_FRAME_SAMPLES = SAMPLE_RATE / 100;
+    private static final float VAD_ENERGY_THRESHOLD_DB = -50.0f;
+    private static final float VAD_MAX_ZERO_CROSSING_RATE = 0.5f;
+    private static final int VAD_HANGOVER_SAMPLES = RECORDING_LENGTH;
+    // Both threads exit within one stride plus one inference once stopped.
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    // Replaced together by installModel(), on the recognizer thread or while it is stopped.
+    private volatile ModelRegistry.LoadedModel model;
+    private volatile InferenceEngine engine;
+    private volatile LabelTable labelTable;
+    // One window plus far more than one recorder read of headroom, so lapped reads stay rare.
+    private final AudioRingBuffer recordingBuffer = new AudioRingBuffer(RECORDING_LENGTH * 2);
+    private final RecognizeCommands recognizeCommands;
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private final EventBus eventBus = EventBus.getInstance();
+    private final long originNanos;
+    private final AtomicReference<PendingSwap> pendingSwap = new AtomicReference<>();
+    // Serializes installs between the recognizer on its way out and a caller of swapModel() or stop().
+    private final Object swapLock = new Object();
+
+    private volatile boolean running;
+    private Thread recordThread;
+    private Thread recognizeThread;
+    // Only touched by the recognition thread, or under the lock while it is stopped.
+    private boolean firstInferenceDone = false;
+    // What the smoother sees while the gate is closed.
+    private float[] silenceScores;
+
+    /**
+     * 模型切换完成的回调
+     */
+    public interface SwapListener {
+        /**
+         * 在识别线程或调用线程回调, 不能阻塞
+         *
+         * @param retired 不再使用的模型, 由调用方释放; 切换被取代或模型已在使用时是请求中的那个模型
+         */
+        void onSwapped(ModelRegistry.LoadedModel retired);
+    }
+
+    private static class PendingSwap {
+        final ModelRegistry.LoadedModel model;
+        final SwapListener listener;
+        final long requestNanos;
+
+        PendingSwap(ModelRegistry.LoadedModel model, SwapListener listener) {
+            this.model = model;
+            this.listener = listener;
+            this.requestNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @param model       an acquired model; the caller keeps ownership and, after {@link #stop()}, releases
+     *                    whichever model {@link #getModel()} then returns
+     * @param originNanos when recognition was asked for, the start of the time-to-first-inference metric
+     */
+    public RecognitionPipeline(ModelRegistry.LoadedModel model, long originNanos) {
+        checkModel(model);
+        this.originNanos = originNanos;
+        // Set up an object to smooth recognition results to increase accuracy.
+        recognizeCommands =
+            new RecognizeCommands(model.getLabelTable(), AVERAGE_WINDOW_DURATION_MS, DETECTION_THRESHOLD,
+                SUPPRESSION_MS, MINIMUM_COUNT, MINIMUM_TIME_BETWEEN_SAMPLES_MS);
+        installModel(model);
+        pipelineMetrics.setAudioSource(recordingBuffer);
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        // Threads left from a run the recognizer ended on its own; the recorder exits within one stride.
+        if (recognizeThread != null) {
+            join(recognizeThread);
+            join(recordThread);
+        }
+        running = true;
+        eventBus.reset();
+        recordThread = new Thread(this::record, "recordThread");
+        recognizeThread = new Thread(this::recognize, "recognizeThread");
+        recordThread.start();
+        recognizeThread.start();
+    }
+
+    /**
+     * 停止录音和识别, 通常返回时两个线程都已退出
+     * <p>
+     * A recognizer that is still inside an inference after {@code STOP_TIMEOUT_MS} is left to finish
+     * it. A pending swap then stays pending and that thread installs it on its way out, so the model
+     * is never changed under a running inference; the listener reports it as usual.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // Wakes the recognizer if it is parked on the ring. The recorder's blocking read
+        // returns within one stride on its own.
+        recognizeThread.interrupt();
+        boolean recognizerExited = join(recognizeThread);
+        join(recordThread);
+        if (recognizerExited) {
+            recognizeThread = null;
+            recordThread = null;
+            // A swap the recognizer didn't get to.
+            applyPendingSwap();
+        }
+    }
+
+    /**
+     * 换用另一个已持有并预热的模型, 录音不中断
+     * <p>
+     * While running, the recognizer installs {@code next} before its next inference; otherwise it is
+     * installed right away. A swap still pending when another is requested is superseded, and its
+     * model goes back to its own listener.
+     */
+    public synchronized void swapModel(ModelRegistry.LoadedModel next, SwapListener listener) {
+        checkModel(next);
+        PendingSwap superseded = pendingSwap.getAndSet(new PendingSwap(next, listener));
+        if (superseded != null) {
+            superseded.listener.onSwapped(superseded.model);
+        }
+        // A recognizer that outlived stop() picks the swap up itself on its way out.
+        if (!running && (recognizeThread == null || !recognizeThread.isAlive())) {
+            applyPendingSwap();
+        }
+    }
+
+    /**
+     * Installs the pending model, if any. Recognizer thread, or any thread once it has exited.
+     */
+    private void applyPendingSwap() {
+        // Not the pipeline's own lock, which stop() holds while it waits for the recognizer.
+        synchronized (swapLock) {
+            PendingSwap swap = pendingSwap.getAndSet(null);
+            if (swap == null) {
+                return;
+            }
+            ModelRegistry.LoadedModel retired = model;
+            if (swap.model == retired) {
+                // Already installed; hand back the extra hold.
+                swap.listener.onSwapped(swap.model);
+                return;
+            }
+            installModel(swap.model);
+            Log.i(LOG_TAG, "swapped " + retired.getSpec() + " for " + swap.model.getSpec() + " in "
+                + (System.nanoTime() - swap.requestNanos) / 1000000 + " ms");
+            swap.listener.onSwapped(retired);
+        }
+    }
+
+    private static void checkModel(ModelRegistry.LoadedModel model) {
+        int labels = model.getLabelTable().size();
+        if (model.getEngine().getLabelCount() != labels) {
+            throw new IllegalArgumentException(
+                model.getSpec() + " has " + labels + " labels for " + model.getEngine().getLabelCount() + " outputs");
+        }
+    }
+
+    private void installModel(ModelRegistry.LoadedModel next) {
+        LabelTable table = next.getLabelTable();
+        // The averaged scores of the old labels mean nothing for the new ones, and the new labels
+        // bring their own thresholds.
+        recognizeCommands.update(table);
+        silenceScores = new float[table.size()];
+        int silenceIndex = table.indexOf(RecognizeCommands.SILENCE_LABEL);
+        if (silenceIndex >= 0) {
+            silenceScores[silenceIndex] = 1.0f;
+        }
+        model = next;
+        engine = next.getEngine();
+        labelTable = table;
+    }
+
+    /**
+     * @return whether the thread has exited
+     */
+    private static boolean join(Thread thread) {
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            Log.w(LOG_TAG, thread.getName() + " did not stop in time");
+            return false;
+        }
+        return true;
+    }
+
+    public ModelRegistry.LoadedModel getModel() {
+        return model;
+    }
+
+    public InferenceEngine getEngine() {
+        return engine;
+    }
+
+    public LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return pipelineMetrics;
+    }
+
+    private void record() {
+        android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_AUDIO);
+
+        // Estimate the buffer size we'll need for this device.
+        int bufferSize =
+            AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (bufferSize == AudioRecord.ERROR || bufferSize == AudioRecord.ERROR_BAD_VALUE) {
+            bufferSize = SAMPLE_RATE * 2;
+        }
+        // Read one inference stride per call, so each wake-up of this thread releases
+        // exactly one window to the recognizer. The device buffer holds a few strides so
+        // a late wake-up doesn't overrun it.
+        short[] audioBuffer = new short[INFERENCE_STRIDE_SAMPLES];
+        bufferSize = Math.max(bufferSize, INFERENCE_STRIDE_SAMPLES * 2 * 4);
+
+        AudioRecord record =
+            new AudioRecord(MediaRecorder.AudioSource.DEFAULT, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            Log.e(LOG_TAG, "Audio Record can't initialize!");
+            record.release();
+            return;
+        }
+
+        record.startRecording();
+
+        Log.v(LOG_TAG, "Start recording");
+
+        // Loop, gathering audio data and copying it to a round-robin buffer. The
+        // ring is single-producer/single-consumer, so this thread never waits on
+        // the recognition thread.
+        while (running) {
+            int numberRead = record.read(audioBuffer, 0, audioBuffer.length);
+            if (numberRead > 0) {
+                recordingBuffer.write(audioBuffer, 0, numberRead);
+            } else if (numberRead < 0) {
+                Log.e(LOG_TAG, "Audio Record read failed: " + numberRead);
+                break;
+            }
+        }
+
+        record.stop();
+        record.release();
+    }
+
+    private void recognize() {
+        try {
+            recognizeLoop();
+        } finally {
+            // Nothing runs the engine any more; covers a swap that stop() left pending because this
+            // thread was still busy.
+            applyPendingSwap();
+            if (running) {
+                // Ended by a failure rather than stop(): stop the recorder too, so isRunning() tells
+                // the service the truth and the next updateRunning() starts over.
+                running = false;
+                Log.e(LOG_TAG, "recognition stopped unexpectedly");
+            }
+        }
+    }
+
+    private void recognizeLoop() {
+        Log.v(LOG_TAG, "Start recognition");
+
+        InferenceScheduler scheduler =
+            new InferenceScheduler(recordingBuffer, INFERENCE_STRIDE_SAMPLES, MAXIMUM_INFERENCE_WAIT_MS);
+        VoiceActivityDetector voiceActivityDetector =
+            new VoiceActivityDetector(recordingBuffer, VAD_FRAME_SAMPLES, VAD_ENERGY_THRESHOLD_DB,
+                VAD_MAX_ZERO_CROSSING_RATE, VAD_HANGOVER_SAMPLES);
+
+        // Loop, grabbing recorded data and running the recognition model on it.
+        while (running) {
+            // The inference boundary: nothing is using the current engine here.
+            applyPendingSwap();
+            InferenceEngine engine = this.engine;
+            // Block until enough new audio has been recorded; if nothing new arrived
+            // there is nothing worth recognizing.
+            if (!scheduler.awaitNextWindow()) {
+                continue;
+            }
+            long startNanos = System.nanoTime();
+            // Anything beyond one stride of pending audio is windows we never ran on.
+            pipelineMetrics.recordDroppedFrames(scheduler.pendingSamples() / INFERENCE_STRIDE_SAMPLES - 1);
+            boolean voiced = voiceActivityDetector.shouldRunInference();
+            pipelineMetrics.record(PipelineMetrics.STAGE_VAD, System.nanoTime() - startNanos);
+            if (!voiced) {
+                scheduler.markProcessed(voiceActivityDetector.getAnalyzedSequence());
+                recognizeCommands.processLatestResults(silenceScores, System.currentTimeMillis());
+                continue;
+            }
+            // Run the model. The engine normalizes the latest window straight out of
+            // the recording ring into its input tensor, without blocking the recorder.
+            float[] outputScores;
+            try {
+                outputScores = engine.run(recordingBuffer);
+            } catch (IllegalStateException e) {
+                if (!engine.isClosed()) {
+                    // A misconfiguration, such as a ring too small for the window; not a shutdown.
+                    Log.e(LOG_TAG, "inference failed", e);
+                    throw e;
+                }
+                Log.w(LOG_TAG, "engine of " + model.getSpec() + " was closed underneath the recognizer");
+                break;
+            }
+            scheduler.markProcessed(engine.getLastInputSequence());
+            if (!firstInferenceDone) {
+                firstInferenceDone = true;
+                long now = System.nanoTime();
+                pipelineMetrics.recordTimeToFirstInference(now - originNanos);
+                Log.i(LOG_TAG, "first inference " + (now - originNanos) / 1000000 + " ms after request, "
+                    + (now - DemoApplication.getStartNanos()) / 1000000 + " ms after process start");
+            }
+            pipelineMetrics.record(PipelineMetrics.STAGE_AUDIO_INPUT, engine.getLastInputNanos());
+            pipelineMetrics.record(PipelineMetrics.STAGE_INFERENCE, engine.getLastInvokeNanos());
+
+            // Use the smoother to figure out if we've had a real recognition event.
+            long smoothingStartNanos = System.nanoTime();
+            long currentTime = System.currentTimeMillis();
+            RecognizeCommands.RecognitionResult result =
+                recognizeCommands.processLatestResults(outputScores, currentTime);
+            long resultNanos = System.nanoTime();
+            pipelineMetrics.record(PipelineMetrics.STAGE_SMOOTHING, resultNanos - smoothingStartNanos);
+            pipelineMetrics.record(PipelineMetrics.STAGE_TOTAL, resultNanos - startNanos);
+            // Only changes are published; the bus coalesces whatever the UI hasn't caught up on.
+            eventBus.publishInferenceTime(resultNanos - startNanos);
+            if (result.isNewCommand && result.labelIndex >= 0) {
+                eventBus.publishDetection(result.labelIndex, result.score);
+            }
+        }
+
+        Log.v(LOG_TAG, "End recognition, inferences gated " + voiceActivityDetector.getGatedCount() + " executed "
+            + voiceActivityDetector.getExecutedCount());
+    }
+}
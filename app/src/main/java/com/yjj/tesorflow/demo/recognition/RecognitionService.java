@@ -0,0 +1,316 @@
+package com.yjj.tesorflow.demo.recognition;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+import com.yjj.tesorflow.demo.Constants;
+import com.yjj.tesorflow.demo.DemoApplication;
+import com.yjj.tesorflow.demo.R;
+import com.yjj.tesorflow.demo.SpeechActivity;
+import com.yjj.tesorflow.demo.event.EventBus;
+import com.yjj.tesorflow.demo.inference.ModelRegistry;
+import com.yjj.tesorflow.demo.utils.PermissionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 后台识别服务, 与界面生命周期解耦
+ * <p>
+ * Holds the model and the {@link RecognitionPipeline} for as long as anyone wants detections. A
+ * screen binds, registers a {@link Client} and takes the detections from the {@link EventBus}.
+ * Started with {@link #startListening(Context)}, the service keeps listening in the foreground with
+ * a notification and no screen at all. The pipeline runs while there is at least one client or the
+ * service is in the foreground, and stops otherwise. The model stays acquired until the service is
+ * destroyed, so a screen coming back resumes without reloading it. {@link #switchModel} loads another
+ * model in the background and swaps it into the running pipeline, so listening never stops.
+ */
+public class RecognitionService extends Service implements EventBus.Subscriber {
+    private static final String TAG = "RecognitionService";
+    private static final String ACTION_START_FOREGROUND = "com.yjj.tesorflow.demo.action.START_FOREGROUND";
+    private static final String ACTION_STOP_FOREGROUND = "com.yjj.tesorflow.demo.action.STOP_FOREGROUND";
+    private static final String CHANNEL_ID = "recognition";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long METRICS_DUMP_INTERVAL_MS = 10000;
+
+    /**
+     * 需要识别结果的一方, 注册期间流水线保持运行
+     */
+    public interface Client {
+        /**
+         * 主线程回调, 模型就绪后及每次切换模型后调用; 注册时已就绪则立即调用
+         */
+        void onReady(RecognitionPipeline pipeline);
+    }
+
+    public class LocalBinder extends Binder {
+        public RecognitionService getService() {
+            return RecognitionService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    // Main thread only.
+    private final List<Client> clients = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ModelRegistry modelRegistry;
+    private RecognitionPipeline pipeline;
+    // The model the pipeline should be running, main thread only.
+    private String modelId = Constants.MODEL_ID;
+    private int modelVersion = Constants.MODEL_VERSION;
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
+    private boolean modelIsLoading = false;
+    private boolean foreground = false;
+    private boolean destroyed = false;
+    // Released by onDestroy; a swap applied after it must not release it again.
+    private ModelRegistry.LoadedModel releasedOnDestroy;
+    private long createNanos;
+
+    /**
+     * 前台持续识别, 没有界面时也不停止
+     */
+    public static void startListening(Context context) {
+        Intent intent = new Intent(context, RecognitionService.class).setAction(ACTION_START_FOREGROUND);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    public static void stopListening(Context context) {
+        Intent intent = new Intent(context, RecognitionService.class).setAction(ACTION_STOP_FOREGROUND);
+        context.startService(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        createNanos = System.nanoTime();
+        backgroundThread = new HandlerThread(TAG);
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+        // Shared with the application, which has usually finished loading the model by now.
+        modelRegistry = DemoApplication.getModelRegistry();
+        EventBus.getInstance().subscribe(this, EventBus.maskOf(EventBus.TYPE_MODEL_LOADED));
+        loadModel();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent == null ? null : intent.getAction();
+        if (ACTION_STOP_FOREGROUND.equals(action)) {
+            foreground = false;
+            stopForeground(true);
+            stopSelf();
+            updateRunning();
+            return START_NOT_STICKY;
+        }
+        // Also covers a sticky restart, where the intent is null.
+        foreground = true;
+        startForeground(NOTIFICATION_ID, buildNotification());
+        loadModel();
+        updateRunning();
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onEvent(EventBus.Event event) {
+        if (event.type == EventBus.TYPE_MODEL_LOADED) {
+            loadModel();
+        }
+    }
+
+    /**
+     * 注册接收识别结果, 主线程调用
+     */
+    public void addClient(Client client) {
+        if (clients.contains(client)) {
+            return;
+        }
+        clients.add(client);
+        loadModel();
+        if (pipeline != null) {
+            client.onReady(pipeline);
+        }
+        updateRunning();
+    }
+
+    public void removeClient(Client client) {
+        if (clients.remove(client)) {
+            updateRunning();
+        }
+    }
+
+    /**
+     * 是否在前台持续识别, 即{@link #startListening}之后、{@link #stopListening}之前
+     */
+    public boolean isForeground() {
+        return foreground;
+    }
+
+    /**
+     * @return 模型就绪前为null
+     */
+    public RecognitionPipeline getPipeline() {
+        return pipeline;
+    }
+
+    private void loadModel() {
+        if (modelIsLoading || pipeline != null || destroyed) {
+            return;
+        }
+        if (!PermissionUtils.hasPermission(this, new String[] { android.Manifest.permission.RECORD_AUDIO })) {
+            // Asked again by the next client, once the screen has the permission.
+            return;
+        }
+        modelIsLoading = true;
+        modelRegistry.acquire(modelId, modelVersion, model -> {
+            modelIsLoading = false;
+            if (model == null) {
+                // Not installed yet; retried on TYPE_MODEL_LOADED.
+                return;
+            }
+            if (destroyed) {
+                modelRegistry.release(model);
+                return;
+            }
+            pipeline = new RecognitionPipeline(model, createNanos);
+            notifyReady();
+            updateRunning();
+            if (!isTarget(model)) {
+                // Switched while this one was loading.
+                switchModel(modelId, modelVersion);
+            }
+        });
+    }
+
+    /**
+     * 换用另一个已注册的模型, 主线程调用
+     * <p>
+     * The registry maps, tunes and warms the new model on its I/O thread while the current one keeps
+     * listening. The pipeline then swaps them between two inferences, and the old model is released
+     * back to the registry once the recognizer has let go of it.
+     */
+    public void switchModel(String id, int version) {
+        if (modelRegistry.getSpec(id, version) == null) {
+            throw new IllegalArgumentException("model " + id + "@" + version + " is not registered");
+        }
+        modelId = id;
+        modelVersion = version;
+        if (pipeline == null) {
+            // The load in progress, if any, switches once it lands.
+            loadModel();
+            return;
+        }
+        if (isTarget(pipeline.getModel())) {
+            return;
+        }
+        modelRegistry.acquire(id, version, model -> {
+            if (model == null) {
+                Log.w(TAG, "can't switch to " + id + "@" + version);
+                return;
+            }
+            if (destroyed || !isTarget(model)) {
+                // Superseded by another switch, or nothing left to swap into.
+                modelRegistry.release(model);
+                return;
+            }
+            RecognitionPipeline target = pipeline;
+            target.swapModel(model, retired -> mainHandler.post(() -> onSwapped(target, retired)));
+        });
+    }
+
+    private boolean isTarget(ModelRegistry.LoadedModel model) {
+        return model.getSpec().id.equals(modelId) && model.getSpec().version == modelVersion;
+    }
+
+    private void onSwapped(RecognitionPipeline target, ModelRegistry.LoadedModel retired) {
+        if (destroyed && retired == releasedOnDestroy) {
+            // A recognizer that outlived stop() swapped after onDestroy had released the model it replaced;
+            // what is left to release is the one it installed.
+            modelRegistry.release(target.getModel());
+            return;
+        }
+        modelRegistry.release(retired);
+        if (!destroyed) {
+            Log.i(TAG, "switched from " + retired.getSpec() + " to " + pipeline.getModel().getSpec() + ", "
+                + modelRegistry.getCachedCount() + " models cached in " + modelRegistry.getMappedBytes() + " bytes");
+            notifyReady();
+        }
+    }
+
+    private void notifyReady() {
+        for (Client client : new ArrayList<>(clients)) {
+            client.onReady(pipeline);
+        }
+    }
+
+    private void updateRunning() {
+        if (pipeline == null) {
+            return;
+        }
+        if (!destroyed && (foreground || !clients.isEmpty())) {
+            if (!pipeline.isRunning()) {
+                pipeline.start();
+                pipeline.getMetrics().startPeriodicDump(backgroundHandler, METRICS_DUMP_INTERVAL_MS, null);
+            }
+        } else if (pipeline.isRunning()) {
+            pipeline.getMetrics().stopPeriodicDump();
+            pipeline.stop();
+        }
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            if (manager != null && manager.getNotificationChannel(CHANNEL_ID) == null) {
+                manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.recognition_channel_name), NotificationManager.IMPORTANCE_LOW));
+            }
+        }
+        PendingIntent contentIntent =
+            PendingIntent.getActivity(this, 0, new Intent(this, SpeechActivity.class), 0);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setContentTitle(getString(R.string.app_name))
+            .setContentText(getString(R.string.recognition_notification_text))
+            .setContentIntent(contentIntent)
+            .setOngoing(true)
+            .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        EventBus.getInstance().unsubscribe(this);
+        updateRunning();
+        if (pipeline != null) {
+            // Stopped, so this is the model it ended up with; any swapped-out one is released on its own.
+            releasedOnDestroy = pipeline.getModel();
+            modelRegistry.release(releasedOnDestroy);
+            pipeline = null;
+        }
+        backgroundThread.quitSafely();
+        Log.d(TAG, "recognition service destroyed");
+    }
+}
@@ -0,0 +1,474 @@
+package com.yjj.tesorflow.demo.utils;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 分片断点续传下载器
+ * <p>
+ * Splits the file into byte ranges fetched over parallel HTTP Range requests into one pre-sized
+ * {@code .part} file. Per-chunk offsets are checkpointed next to it, so a killed process or a dropped
+ * connection resumes where it stopped rather than from zero. Failed requests are retried with
+ * exponential backoff, and a server that ignores Range falls back to a single plain download.
+ * The client and URL are injected, so it can run against a local stand-in server.
+ */
+public class ChunkedDownloader {
+    private static final String TAG = "ChunkedDownloader";
+    private static final int STATE_VERSION = 1;
+    private static final String PART_POSTFIX = ".part";
+    private static final String STATE_POSTFIX = ".chunks";
+    private static final String SEPARATOR = "\t";
+
+    public static final int DEFAULT_CONNECTIONS = 3;
+    /**
+     * Chunks smaller than this aren't worth another connection.
+     */
+    private static final long MIN_CHUNK_SIZE = 512 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Bytes written by a chunk between checkpoints; data is forced to disk before its offset is saved.
+     */
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final int MAX_RETRIES = 5;
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30 * 1000;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final File target;
+    private final File partFile;
+    private final File stateFile;
+    private final int connections;
+    private final Listener listener;
+
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private volatile boolean canceled;
+    /**
+     * Set when one chunk gives up, so the others stop too.
+     */
+    private volatile boolean failed;
+    private long initialBackoffMs = INITIAL_BACKOFF_MS;
+    private long totalBytes = -1;
+    private String validator;
+    private List<Chunk> chunks;
+
+    private long lastProgressNanos;
+    private long lastProgressBytes;
+
+    public interface Listener {
+        /**
+         * @param bytesPerSecond throughput since the previous report
+         */
+        void onProgress(long downloadedBytes, long totalBytes, long bytesPerSecond);
+
+        void onCompleted(File file);
+
+        void onError(Exception e);
+    }
+
+    private static class Chunk {
+        final long start;
+        /**
+         * Inclusive, as in the Range header.
+         */
+        final long end;
+        final AtomicLong downloaded;
+
+        Chunk(long start, long end, long downloaded) {
+            this.start = start;
+            this.end = end;
+            this.downloaded = new AtomicLong(downloaded);
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        boolean isDone() {
+            return downloaded.get() >= length();
+        }
+    }
+
+    public ChunkedDownloader(OkHttpClient client, String url, File target, int connections, Listener listener) {
+        this.client = client;
+        this.url = url;
+        this.target = target;
+        this.partFile = new File(target.getPath() + PART_POSTFIX);
+        this.stateFile = new File(target.getPath() + STATE_POSTFIX);
+        this.connections = Math.max(1, connections);
+        this.listener = listener;
+    }
+
+    /**
+     * 在调用线程中下载, 其余分片提交到I/O线程池; 结果通过{@link Listener}回调
+     *
+     * @return 是否下载成功
+     */
+    public boolean download() {
+        try {
+            if (!probe()) {
+                downloadWhole();
+            } else {
+                downloadChunks();
+            }
+            if (canceled) {
+                return false;
+            }
+            if (target.exists() && !FileUtils.deleteFile(target.getAbsolutePath())) {
+                throw new IOException("can't replace " + target);
+            }
+            if (!partFile.renameTo(target)) {
+                throw new IOException("can't rename " + partFile);
+            }
+            FileUtils.deleteFile(stateFile.getAbsolutePath());
+            reportProgress(true);
+            if (listener != null) {
+                listener.onCompleted(target);
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "download of " + url + " failed", e);
+            if (listener != null && !canceled) {
+                listener.onError(e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Shortens the retry delays, so tests against a local server don't wait for seconds.
+     */
+    void setInitialBackoffMs(long initialBackoffMs) {
+        this.initialBackoffMs = initialBackoffMs;
+    }
+
+    /**
+     * Stops at the next buffer; the checkpoint is kept, so a later download resumes.
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    private boolean isStopped() {
+        return canceled || failed;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Asks for the first byte to learn the length and whether ranges are honoured.
+     *
+     * @return 服务器是否支持Range
+     */
+    private boolean probe() throws IOException, InterruptedException {
+        for (int attempt = 0; ; ++attempt) {
+            Request request = new Request.Builder().url(url).header("Range", "bytes=0-0").build();
+            try (Response response = client.newCall(request).execute()) {
+                if (response.code() == 206) {
+                    String contentRange = response.header("Content-Range");
+                    int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+                    if (slash < 0 || contentRange.endsWith("*")) {
+                        return false;
+                    }
+                    totalBytes = Long.parseLong(contentRange.substring(slash + 1).trim());
+                    validator = response.header("ETag", response.header("Last-Modified", ""));
+                    return true;
+                }
+                if (response.isSuccessful()) {
+                    return false;
+                }
+                throw new IOException("HTTP " + response.code() + " for " + url);
+            } catch (IOException | NumberFormatException e) {
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    private void downloadChunks() throws Exception {
+        if (!restoreState()) {
+            FileUtils.deleteFile(partFile.getAbsolutePath());
+            chunks = split(totalBytes);
+            saveState();
+        }
+        RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+        try {
+            raf.setLength(totalBytes);
+        } finally {
+            raf.close();
+        }
+        long done = 0;
+        for (Chunk chunk : chunks) {
+            done += chunk.downloaded.get();
+        }
+        downloadedBytes.set(done);
+        lastProgressNanos = System.nanoTime();
+        lastProgressBytes = done;
+
+        // The calling thread takes the first chunk itself instead of idling on the others.
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < chunks.size(); ++i) {
+            final Chunk chunk = chunks.get(i);
+            if (!chunk.isDone()) {
+                futures.add(ExecutorUtils.executeIo(ExecutorUtils.PRIORITY_HIGH, () -> {
+                    downloadChunk(chunk);
+                    return null;
+                }));
+            }
+        }
+        // Errors are held too, so the other chunks stop and the progress made so far is still saved.
+        Throwable failure = null;
+        try {
+            downloadChunk(chunks.get(0));
+        } catch (Exception | Error e) {
+            failure = e;
+            failed = true;
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                    failed = true;
+                }
+            }
+        }
+        saveState();
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof Exception) {
+            throw (Exception) failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    private List<Chunk> split(long length) {
+        int count = (int) Math.max(1, Math.min(connections, length / MIN_CHUNK_SIZE));
+        List<Chunk> result = new ArrayList<>(count);
+        long chunkSize = length / count;
+        for (int i = 0; i < count; ++i) {
+            long start = i * chunkSize;
+            long end = i == count - 1 ? length - 1 : start + chunkSize - 1;
+            result.add(new Chunk(start, end, 0));
+        }
+        return result;
+    }
+
+    private void downloadChunk(Chunk chunk) throws IOException, InterruptedException {
+        RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int attempt = 0; !chunk.isDone() && !isStopped(); ) {
+                long from = chunk.start + chunk.downloaded.get();
+                Request request = new Request.Builder().url(url)
+                    .header("Range", "bytes=" + from + "-" + chunk.end)
+                    .build();
+                long before = chunk.downloaded.get();
+                try (Response response = client.newCall(request).execute()) {
+                    if (response.code() != 206) {
+                        throw new IOException("HTTP " + response.code() + " for range " + from + "-" + chunk.end);
+                    }
+                    ResponseBody body = response.body();
+                    if (body == null) {
+                        throw new IOException("empty body for range " + from + "-" + chunk.end);
+                    }
+                    raf.seek(from);
+                    copy(body.byteStream(), raf, chunk, buffer);
+                } catch (IOException e) {
+                    if (isStopped()) {
+                        break;
+                    }
+                    // A connection that made progress before dropping starts the backoff over.
+                    attempt = chunk.downloaded.get() > before ? 0 : attempt + 1;
+                    backoff(attempt, e);
+                }
+            }
+            raf.getChannel().force(false);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void copy(InputStream in, RandomAccessFile raf, Chunk chunk, byte[] buffer) throws IOException {
+        long sinceCheckpoint = 0;
+        int c;
+        while (!isStopped() && !chunk.isDone() && (c = in.read(buffer, 0,
+            (int) Math.min(buffer.length, chunk.length() - chunk.downloaded.get()))) != -1) {
+            raf.write(buffer, 0, c);
+            chunk.downloaded.addAndGet(c);
+            downloadedBytes.addAndGet(c);
+            sinceCheckpoint += c;
+            if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+                // Offsets may only ever claim bytes that are already on disk.
+                raf.getChannel().force(false);
+                saveState();
+                sinceCheckpoint = 0;
+            }
+            reportProgress(false);
+        }
+        if (!isStopped() && !chunk.isDone()) {
+            throw new IOException("connection closed at " + (chunk.start + chunk.downloaded.get()));
+        }
+    }
+
+    /**
+     * Range不可用时的整体下载, 失败从头重试
+     */
+    private void downloadWhole() throws IOException, InterruptedException {
+        FileUtils.deleteFile(stateFile.getAbsolutePath());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int attempt = 0; ; ++attempt) {
+            Request request = new Request.Builder().url(url).build();
+            downloadedBytes.set(0);
+            lastProgressNanos = System.nanoTime();
+            lastProgressBytes = 0;
+            try (Response response = client.newCall(request).execute()) {
+                ResponseBody body = response.body();
+                if (!response.isSuccessful() || body == null) {
+                    throw new IOException("HTTP " + response.code() + " for " + url);
+                }
+                totalBytes = body.contentLength();
+                InputStream in = body.byteStream();
+                FileOutputStream out = new FileOutputStream(partFile);
+                try {
+                    int c;
+                    while (!canceled && (c = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, c);
+                        downloadedBytes.addAndGet(c);
+                        reportProgress(false);
+                    }
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+                return;
+            } catch (IOException e) {
+                if (canceled) {
+                    return;
+                }
+                backoff(attempt, e);
+            }
+        }
+    }
+
+    private void backoff(int attempt, Exception cause) throws InterruptedException, IOException {
+        if (isStopped() || attempt >= MAX_RETRIES) {
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+        long delay = Math.min(MAX_BACKOFF_MS, initialBackoffMs << attempt);
+        Log.d(TAG, "retrying " + url + " in " + delay + "ms: " + cause);
+        TimeUnit.MILLISECONDS.sleep(delay);
+    }
+
+    private synchronized void reportProgress(boolean force) {
+        long now = System.nanoTime();
+        long elapsed = now - lastProgressNanos;
+        if (listener == null || (!force && elapsed < TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MS))) {
+            return;
+        }
+        long downloaded = downloadedBytes.get();
+        long bytesPerSecond = elapsed <= 0 ? 0 : (downloaded - lastProgressBytes) * 1000000000L / elapsed;
+        lastProgressNanos = now;
+        lastProgressBytes = downloaded;
+        listener.onProgress(downloaded, totalBytes, bytesPerSecond);
+    }
+
+    /**
+     * 写入分片进度, 先写临时文件再改名, 中途被杀不会留下半个文件
+     */
+    private synchronized void saveState() throws IOException {
+        File tmp = new File(stateFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            writer.write("version=" + STATE_VERSION + "\n");
+            writer.write(url + "\n");
+            writer.write(totalBytes + SEPARATOR + validator + "\n");
+            for (Chunk chunk : chunks) {
+                writer.write(chunk.start + SEPARATOR + chunk.end + SEPARATOR + chunk.downloaded.get() + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(stateFile)) {
+            throw new IOException("can't write " + stateFile);
+        }
+    }
+
+    /**
+     * @return 是否有同一url, 同一版本文件的可用进度
+     */
+    private boolean restoreState() {
+        if (!stateFile.isFile() || !partFile.isFile()) {
+            return false;
+        }
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), "UTF-8"));
+            if (!("version=" + STATE_VERSION).equals(br.readLine()) || !url.equals(br.readLine())) {
+                return false;
+            }
+            String[] header = br.readLine().split(SEPARATOR, -1);
+            if (header.length != 2 || Long.parseLong(header[0]) != totalBytes || !header[1].equals(validator)) {
+                return false;
+            }
+            List<Chunk> restored = new ArrayList<>();
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+                Chunk chunk = new Chunk(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]));
+                if (chunk.downloaded.get() < 0 || chunk.downloaded.get() > chunk.length()) {
+                    return false;
+                }
+                restored.add(chunk);
+            }
+            if (restored.isEmpty()) {
+                return false;
+            }
+            chunks = restored;
+            return true;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+}
@@ -1,16 +1,58 @@
 package com.yjj.tesorflow.demo.utils;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * created by yangjianjun on 2019/5/1
  * 线程工具
+ * <p>
+ * Two bounded pools instead of one shared thread: I/O (downloads, mapping files) and CPU
+ * (decompression, hashing), so a slow unzip can't hold up loading a model that is already on disk.
+ * Within a pool lower priority values run first.
  */
 public class ExecutorUtils {
-    private static ExecutorService singleExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Work the user is waiting on, e.g. loading the model at startup.
+     */
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * Housekeeping such as cache trimming.
+     */
+    public static final int PRIORITY_LOW = 2;
 
-    public static void execute(Runnable runnable) {
-        singleExecutor.execute(runnable);
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int IO_THREADS = 3;
+    private static final int CPU_THREADS = Math.max(1, Math.min(CPU_COUNT - 1, 4));
+
+    private static final PriorityTaskExecutor ioExecutor = new PriorityTaskExecutor("tf-io", IO_THREADS);
+    private static final PriorityTaskExecutor cpuExecutor = new PriorityTaskExecutor("tf-cpu", CPU_THREADS);
+
+    public static Future<?> executeIo(int priority, Runnable runnable) {
+        return ioExecutor.submit(priority, runnable);
+    }
+
+    public static <T> Future<T> executeIo(int priority, Callable<T> callable) {
+        return ioExecutor.submit(priority, callable);
+    }
+
+    public static Future<?> executeCpu(int priority, Runnable runnable) {
+        return cpuExecutor.submit(priority, runnable);
+    }
+
+    public static <T> Future<T> executeCpu(int priority, Callable<T> callable) {
+        return cpuExecutor.submit(priority, callable);
+    }
+
+    /**
+     * 队列深度与等待耗时
+     */
+    public static PriorityTaskExecutor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public static PriorityTaskExecutor getCpuExecutor() {
+        return cpuExecutor;
     }
 }
@@ -0,0 +1,34 @@
+package com.yjj.tesorflow.demo.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * label 文件解析工具
+ */
+public class LabelFileUtils {
+
+    /**
+     * 按行读取label文件
+     */
+    public static List<String> loadLabel(String path) {
+        BufferedReader br = null;
+        List<String> labels = new ArrayList<>(16);
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(new File(path))));
+            String line;
+            while ((line = br.readLine()) != null) {
+                labels.add(line);
+            }
+            br.close();
+        } catch (IOException e) {
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,161 @@
+package com.yjj.tesorflow.demo.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 标签表: 下标 -> 原始标签, 显示文本, 是否特殊标签
+ * <p>
+ * Built once per model, off the main thread, so everything the UI needs for a detection is an
+ * array lookup by the label index the recognizer already reports. Special labels are the ones
+ * written as {@code _name_} by the training script, e.g. {@code _silence_} and {@code _unknown_};
+ * they are never shown as a detection. The strings are interned, since the same labels come back
+ * for every model version of a keyword set.
+ * <p>
+ * A line of the label file may carry tab-separated detection settings after the label:
+ * {@code label<TAB>on<TAB>off<TAB>suppressionMs}, each column optional. A label fires when its
+ * average score rises above {@code on} and can't fire again until it has dropped below {@code off}.
+ * {@code suppressionMs} is how long other labels are held back after it fires. Labels without the
+ * columns use the smoother's defaults. Large vocabularies need this, because one threshold is wrong
+ * for every class.
+ */
+public class LabelTable {
+    private static final char SPECIAL_MARK = '_';
+    private static final String FIELD_SEPARATOR = "\t";
+    private static final int NO_SUPPRESSION_MS = -1;
+
+    private final String[] raw;
+    private final String[] display;
+    private final boolean[] special;
+    private final List<String> rawList;
+    private final Map<String, Integer> indices;
+    // NaN / NO_SUPPRESSION_MS where the label file leaves the smoother's default.
+    private final float[] onThresholds;
+    private final float[] offThresholds;
+    private final int[] suppressionsMs;
+
+    private LabelTable(List<String> labels) {
+        int size = labels.size();
+        raw = new String[size];
+        display = new String[size];
+        special = new boolean[size];
+        indices = new HashMap<>(size * 2);
+        onThresholds = new float[size];
+        offThresholds = new float[size];
+        suppressionsMs = new int[size];
+        for (int i = 0; i < size; ++i) {
+            String[] fields = labels.get(i).split(FIELD_SEPARATOR);
+            parseSettings(i, fields);
+            String label = fields.length > 0 ? fields[0].trim().intern() : "";
+            raw[i] = label;
+            special[i] = label.length() > 0 && label.charAt(0) == SPECIAL_MARK;
+            display[i] = formatDisplay(label).intern();
+            if (!indices.containsKey(label)) {
+                indices.put(label, i);
+            }
+        }
+        List<String> list = new ArrayList<>(size);
+        Collections.addAll(list, raw);
+        rawList = Collections.unmodifiableList(list);
+    }
+
+    public static LabelTable build(List<String> labels) {
+        return new LabelTable(labels);
+    }
+
+    private void parseSettings(int index, String[] fields) {
+        try {
+            onThresholds[index] = fields.length > 1 ? Float.parseFloat(fields[1].trim()) : Float.NaN;
+            offThresholds[index] = fields.length > 2 ? Float.parseFloat(fields[2].trim()) : Float.NaN;
+            suppressionsMs[index] = fields.length > 3 ? Integer.parseInt(fields[3].trim()) : NO_SUPPRESSION_MS;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad detection settings for label " + index + ": " + fields[0], e);
+        }
+        if (offThresholds[index] > onThresholds[index]) {
+            throw new IllegalArgumentException("label " + fields[0] + " has an off threshold above its on threshold");
+        }
+        if (fields.length > 3 && suppressionsMs[index] < 0) {
+            throw new IllegalArgumentException("label " + fields[0] + " has a negative suppression");
+        }
+    }
+
+    /**
+     * {@code _silence_} -> {@code Silence}, {@code yes} -> {@code Yes}
+     */
+    private static String formatDisplay(String label) {
+        int start = 0;
+        int end = label.length();
+        while (start < end && label.charAt(start) == SPECIAL_MARK) {
+            start++;
+        }
+        while (end > start && label.charAt(end - 1) == SPECIAL_MARK) {
+            end--;
+        }
+        if (start == end) {
+            return label;
+        }
+        return label.substring(start, start + 1).toUpperCase(Locale.US) + label.substring(start + 1, end);
+    }
+
+    public int size() {
+        return raw.length;
+    }
+
+    public String getRaw(int index) {
+        return raw[index];
+    }
+
+    public String getDisplay(int index) {
+        return display[index];
+    }
+
+    /**
+     * 是否silence/unknown这类不展示的标签
+     */
+    public boolean isSpecial(int index) {
+        return special[index];
+    }
+
+    /**
+     * 仅用于加载时的查找, 识别结果直接带下标
+     *
+     * @return 下标, 不存在时返回-1
+     */
+    public int indexOf(String label) {
+        Integer index = indices.get(label);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * 触发阈值, 标签文件未指定时返回{@code defaultValue}
+     */
+    public float getOnThreshold(int index, float defaultValue) {
+        return Float.isNaN(onThresholds[index]) ? defaultValue : onThresholds[index];
+    }
+
+    /**
+     * 释放阈值, 标签文件未指定时返回{@code defaultValue}
+     */
+    public float getOffThreshold(int index, float defaultValue) {
+        return Float.isNaN(offThresholds[index]) ? defaultValue : offThresholds[index];
+    }
+
+    /**
+     * 触发后抑制其他标签的时长, 标签文件未指定时返回{@code defaultValue}
+     */
+    public int getSuppressionMs(int index, int defaultValue) {
+        return suppressionsMs[index] == NO_SUPPRESSION_MS ? defaultValue : suppressionsMs[index];
+    }
+
+    /**
+     * 原始标签, 顺序与模型输出一致
+     */
+    public List<String> getLabels() {
+        return rawList;
+    }
+}
@@ -1,5 +1,9 @@
 package com.yjj.tesorflow.demo.utils;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 
 /**
@@ -26,10 +30,53 @@ public class Md5Utils {
         }
     }
 
+    /**
+     * 计算一块内存(例如映射后的模型文件)的MD5值, 不改变buffer的position
+     */
+    public static String getMD5(ByteBuffer buffer) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            md.update(view);
+            return bytesToHex(md.digest());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 计算文件的MD5值
+     */
+    public static String getFileMD5(File file) {
+        FileInputStream in = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[64 * 1024];
+            int c;
+            while ((c = in.read(buffer)) != -1) {
+                md.update(buffer, 0, c);
+            }
+            return bytesToHex(md.digest());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
     /**
      * 将bytes数组转化为16进制
      */
-    private static String bytesToHex(byte[] bytes) {
+    public static String bytesToHex(byte[] bytes) {
         char[] hexChars = new char[bytes.length * 2];
         for (int j = 0; j < bytes.length; j++) {
             int v = bytes[j] & 0xFF;
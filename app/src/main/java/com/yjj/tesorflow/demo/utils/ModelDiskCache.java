@@ -0,0 +1,362 @@
+package com.yjj.tesorflow.demo.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.yjj.tesorflow.demo.Constants;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 下载文件和已解压模型的磁盘缓存管理
+ * <p>
+ * Keeps the downloaded zips and the extracted model directories under a byte budget, evicting the
+ * least recently used first. Sizes are recorded when an entry is added: an install's size comes
+ * from its {@link ModelManifest} and a zip's from its length. They are kept in a small index file,
+ * so a trim costs one stat per entry instead of a recursive walk. Only entries the index doesn't
+ * know yet, such as files left by older versions, are walked once. In-progress artifacts
+ * (staging directories, partial downloads) are neither counted nor evicted, and pinned
+ * directories are never evicted.
+ */
+public class ModelDiskCache {
+    private static final String TAG = "ModelDiskCache";
+    private static final String INDEX_FILE_NAME = "disk_cache.idx";
+    private static final String SEPARATOR = "\t";
+    public static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+    private static final String[] IN_PROGRESS_POSTFIXES = { ".installing", ".old", ".part", ".chunks", ".tmp" };
+
+    private static volatile ModelDiskCache instance;
+
+    private final File modelRoot;
+    private final File downloadRoot;
+    private final File indexFile;
+    private long budgetBytes = DEFAULT_BUDGET_BYTES;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Integer> pins = new HashMap<>();
+    private boolean loaded;
+    private long totalBytes;
+    private long evictionCount;
+    private long evictedBytes;
+
+    private static class Entry {
+        final File file;
+        long size;
+        long lastAccess;
+
+        Entry(File file, long size, long lastAccess) {
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private ModelDiskCache(Context context) {
+        modelRoot = FileUtils.getFileDirectory(context);
+        downloadRoot = FileUtils.getDownloadFileRoot(context);
+        indexFile = new File(FileUtils.getFileDirectory(context, true), INDEX_FILE_NAME);
+    }
+
+    public static ModelDiskCache getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ModelDiskCache.class) {
+                if (instance == null) {
+                    instance = new ModelDiskCache(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * 记录一次完成的安装, 大小取自清单
+     */
+    public synchronized void recordInstall(File dir, ModelManifest manifest) {
+        ensureLoaded();
+        long size = manifest.getTotalSize() + new File(dir, Constants.INDEX_NAME).length();
+        put(new Entry(dir, size, System.currentTimeMillis()));
+        save();
+    }
+
+    public synchronized void recordDownload(File zip) {
+        ensureLoaded();
+        put(new Entry(zip, zip.length(), System.currentTimeMillis()));
+        save();
+    }
+
+    /**
+     * 更新最近使用时间
+     */
+    public synchronized void touch(File file) {
+        ensureLoaded();
+        Entry entry = entries.get(file.getAbsolutePath());
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            save();
+        }
+    }
+
+    /**
+     * 删除文件或目录并移出缓存
+     */
+    public synchronized void remove(File file) {
+        ensureLoaded();
+        delete(file);
+        Entry entry = entries.remove(file.getAbsolutePath());
+        if (entry != null) {
+            totalBytes -= entry.size;
+        }
+        save();
+    }
+
+    /**
+     * 正在使用的目录不会被淘汰
+     */
+    public synchronized void pin(File file) {
+        String key = file.getAbsolutePath();
+        Integer count = pins.get(key);
+        pins.put(key, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void unpin(File file) {
+        String key = file.getAbsolutePath();
+        Integer count = pins.get(key);
+        if (count == null || count <= 1) {
+            pins.remove(key);
+        } else {
+            pins.put(key, count - 1);
+        }
+    }
+
+    /**
+     * 超出预算时按最近使用时间从旧到新淘汰, 应在I/O线程调用
+     */
+    public synchronized void trim() {
+        ensureLoaded();
+        if (totalBytes <= budgetBytes) {
+            return;
+        }
+        List<Entry> candidates = new ArrayList<>(entries.values());
+        Collections.sort(candidates, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.lastAccess < b.lastAccess ? -1 : (a.lastAccess == b.lastAccess ? 0 : 1);
+            }
+        });
+        for (Entry entry : candidates) {
+            if (totalBytes <= budgetBytes) {
+                break;
+            }
+            if (pins.containsKey(entry.file.getAbsolutePath())) {
+                continue;
+            }
+            if (!delete(entry.file)) {
+                Log.w(TAG, "can't evict " + entry.file);
+                continue;
+            }
+            entries.remove(entry.file.getAbsolutePath());
+            totalBytes -= entry.size;
+            evictionCount++;
+            evictedBytes += entry.size;
+            Log.d(TAG, "evicted " + entry.file + " (" + entry.size + " bytes)");
+        }
+        save();
+    }
+
+    public synchronized Stats getStats() {
+        ensureLoaded();
+        Stats stats = new Stats();
+        stats.budgetBytes = budgetBytes;
+        stats.totalBytes = totalBytes;
+        stats.entryCount = entries.size();
+        for (Entry entry : entries.values()) {
+            if (entry.file.isDirectory()) {
+                stats.modelBytes += entry.size;
+            } else {
+                stats.downloadBytes += entry.size;
+            }
+        }
+        stats.evictionCount = evictionCount;
+        stats.evictedBytes = evictedBytes;
+        return stats;
+    }
+
+    private void put(Entry entry) {
+        Entry old = entries.put(entry.file.getAbsolutePath(), entry);
+        if (old != null) {
+            totalBytes -= old.size;
+        }
+        totalBytes += entry.size;
+    }
+
+    private static boolean delete(File file) {
+        if (file.isDirectory()) {
+            // Drop the marker first so a half-deleted directory never looks installed.
+            new File(file, Constants.INDEX_NAME).delete();
+            return FileUtils.deleteDir(file);
+        }
+        return !file.exists() || file.delete();
+    }
+
+    /**
+     * 读取索引, 并与磁盘上的实际内容对齐
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        read();
+        List<String> gone = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.file.exists()) {
+                gone.add(entry.file.getAbsolutePath());
+            }
+        }
+        for (String key : gone) {
+            totalBytes -= entries.remove(key).size;
+        }
+        boolean changed = !gone.isEmpty();
+        changed |= scan(modelRoot);
+        changed |= scan(downloadRoot);
+        if (changed) {
+            save();
+        }
+    }
+
+    private boolean scan(File root) {
+        File[] children = root.listFiles();
+        if (children == null) {
+            return false;
+        }
+        boolean changed = false;
+        for (File child : children) {
+            if (entries.containsKey(child.getAbsolutePath()) || isInProgress(child.getName())) {
+                continue;
+            }
+            put(new Entry(child, sizeOf(child), child.lastModified()));
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static boolean isInProgress(String name) {
+        for (String postfix : IN_PROGRESS_POSTFIXES) {
+            if (name.endsWith(postfix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Only for entries the index has never seen.
+     */
+    private static long sizeOf(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    private void read() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length != 3) {
+                    continue;
+                }
+                put(new Entry(new File(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // A damaged index only costs a rescan.
+            entries.clear();
+            totalBytes = 0;
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void save() {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            for (Entry entry : entries.values()) {
+                writer.write(entry.file.getAbsolutePath() + SEPARATOR + entry.size + SEPARATOR + entry.lastAccess
+                    + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(indexFile)) {
+                Log.w(TAG, "can't write " + indexFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "can't write " + indexFile, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 磁盘占用统计
+     */
+    public static class Stats {
+        public long budgetBytes;
+        public long totalBytes;
+        public long modelBytes;
+        public long downloadBytes;
+        public int entryCount;
+        public long evictionCount;
+        public long evictedBytes;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                "disk cache %.1f/%.1f MB in %d entries (models %.1f MB, downloads %.1f MB), evicted %d (%.1f MB)",
+                totalBytes / 1048576.0, budgetBytes / 1048576.0, entryCount, modelBytes / 1048576.0,
+                downloadBytes / 1048576.0, evictionCount, evictedBytes / 1048576.0);
+        }
+    }
+}
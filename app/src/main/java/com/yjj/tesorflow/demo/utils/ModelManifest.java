@@ -0,0 +1,160 @@
+package com.yjj.tesorflow.demo.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 模型安装清单
+ * <p>
+ * Written as the {@code index.in} marker once every file of an install is on disk. It records the
+ * size and MD5 of each file, so loading can reject a truncated or corrupt install in milliseconds
+ * (sizes first, then a hash over the already-mapped model) rather than failing inside
+ * {@code new Interpreter(...)}. An empty marker from older versions reads as no manifest, which
+ * triggers a reinstall.
+ * <pre>
+ * version=1
+ * conv_actions_frozen.tflite	3866448	8a1c...
+ * conv_actions_labels.txt	60	4f0e...
+ * </pre>
+ */
+public class ModelManifest {
+    public static final int VERSION = 1;
+    private static final String VERSION_PREFIX = "version=";
+    private static final String SEPARATOR = "\t";
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public static class Entry {
+        public final String name;
+        public final long size;
+        public final String md5;
+
+        public Entry(String name, long size, String md5) {
+            this.name = name;
+            this.size = size;
+            this.md5 = md5;
+        }
+    }
+
+    public synchronized void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * 所有文件大小之和
+     */
+    public synchronized long getTotalSize() {
+        long size = 0;
+        for (Entry entry : entries) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    public synchronized Entry get(String name) {
+        for (Entry entry : entries) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 写入清单并刷到磁盘
+     */
+    public synchronized void write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            writer.write(VERSION_PREFIX + VERSION + "\n");
+            for (Entry entry : entries) {
+                writer.write(entry.name + SEPARATOR + entry.size + SEPARATOR + entry.md5 + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return 清单, 文件不存在/为空/格式不对/版本不认识时返回null
+     */
+    public static ModelManifest read(File file) {
+        if (!file.isFile() || file.length() == 0) {
+            return null;
+        }
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line = br.readLine();
+            if (line == null || !line.equals(VERSION_PREFIX + VERSION)) {
+                return null;
+            }
+            ModelManifest manifest = new ModelManifest();
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length != 3) {
+                    return null;
+                }
+                manifest.add(new Entry(fields[0], Long.parseLong(fields[1]), fields[2]));
+            }
+            return manifest.entries.isEmpty() ? null : manifest;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        } finally {
+            if (br != null) {
+                try {
+                    br.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 从磁盘读取校验所有文件
+     */
+    public boolean verify(File dir) {
+        return verify(dir, null, null);
+    }
+
+    /**
+     * 校验目录下所有文件的大小, 以及已映射模型和其它文件的md5
+     *
+     * @param modelName   已映射的模型文件名
+     * @param modelBuffer 映射后的模型
+     */
+    public synchronized boolean verify(File dir, String modelName, ByteBuffer modelBuffer) {
+        // Sizes are a stat() each, so catch truncation before hashing anything.
+        for (Entry entry : entries) {
+            if (new File(dir, entry.name).length() != entry.size) {
+                return false;
+            }
+        }
+        for (Entry entry : entries) {
+            String md5 = entry.name.equals(modelName)
+                ? Md5Utils.getMD5(modelBuffer)
+                : Md5Utils.getFileMD5(new File(dir, entry.name));
+            if (!entry.md5.equals(md5)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
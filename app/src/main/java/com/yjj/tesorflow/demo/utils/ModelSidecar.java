@@ -0,0 +1,152 @@
+package com.yjj.tesorflow.demo.utils;
+
+import com.yjj.tesorflow.demo.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 模型预计算信息, 用于快速启动
+ * <p>
+ * A small binary file written next to an install once it has been verified and an interpreter
+ * built from it. It holds everything the cold path has to discover: which file is the model and
+ * where it sits and the label table. A warm start reads this one file, maps the
+ * model and goes straight to the interpreter. The model and manifest sizes and mtimes are recorded
+ * as well; while they still match, the model is what was verified, so its MD5 isn't recomputed.
+ * Any mismatch or parse error sends the caller back to the cold path, which rewrites the sidecar.
+ */
+public class ModelSidecar {
+    public static final String FILE_NAME = "model.meta";
+    private static final int MAGIC = 0x54464d53;
+    // 2: tensor shapes are no longer stored; the interpreter reports them for free.
+    private static final int VERSION = 2;
+    /**
+     * Sanity bounds, so a damaged file can't make the reader allocate wildly.
+     */
+    private static final int MAX_LABELS = 65536;
+
+    public final String modelName;
+    public final long modelOffset;
+    public final long modelLength;
+    public final long modelLastModified;
+    public final long indexLength;
+    public final long indexLastModified;
+    public final List<String> labels;
+
+    public ModelSidecar(File dir, String modelName, long modelOffset, long modelLength, List<String> labels) {
+        File model = new File(dir, modelName);
+        File index = new File(dir, Constants.INDEX_NAME);
+        this.modelName = modelName;
+        this.modelOffset = modelOffset;
+        this.modelLength = modelLength;
+        this.modelLastModified = model.lastModified();
+        this.indexLength = index.length();
+        this.indexLastModified = index.lastModified();
+        this.labels = labels;
+    }
+
+    private ModelSidecar(String modelName, long modelOffset, long modelLength, long modelLastModified,
+        long indexLength, long indexLastModified, List<String> labels) {
+        this.modelName = modelName;
+        this.modelOffset = modelOffset;
+        this.modelLength = modelLength;
+        this.modelLastModified = modelLastModified;
+        this.indexLength = indexLength;
+        this.indexLastModified = indexLastModified;
+        this.labels = labels;
+    }
+
+    /**
+     * 安装目录里的文件是否还是写入时校验过的那些
+     */
+    public boolean matches(File dir) {
+        File model = new File(dir, modelName);
+        File index = new File(dir, Constants.INDEX_NAME);
+        return model.length() == modelOffset + modelLength && model.lastModified() == modelLastModified
+            && index.length() == indexLength && index.lastModified() == indexLastModified;
+    }
+
+    public void write(File dir) throws IOException {
+        File file = new File(dir, FILE_NAME);
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(modelName);
+            out.writeLong(modelOffset);
+            out.writeLong(modelLength);
+            out.writeLong(modelLastModified);
+            out.writeLong(indexLength);
+            out.writeLong(indexLastModified);
+            out.writeInt(labels.size());
+            for (String label : labels) {
+                out.writeUTF(label);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't write " + file);
+        }
+    }
+
+    /**
+     * @return 预计算信息, 不存在或格式不对时返回null
+     */
+    public static ModelSidecar read(File dir) {
+        File file = new File(dir, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String modelName = in.readUTF();
+            long modelOffset = in.readLong();
+            long modelLength = in.readLong();
+            long modelLastModified = in.readLong();
+            long indexLength = in.readLong();
+            long indexLastModified = in.readLong();
+            int labelCount = in.readInt();
+            if (labelCount < 0 || labelCount > MAX_LABELS) {
+                return null;
+            }
+            List<String> labels = new ArrayList<>(labelCount);
+            for (int i = 0; i < labelCount; ++i) {
+                labels.add(in.readUTF());
+            }
+            return new ModelSidecar(modelName, modelOffset, modelLength, modelLastModified, indexLength,
+                indexLastModified, Collections.unmodifiableList(labels));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    public static void delete(File dir) {
+        new File(dir, FILE_NAME).delete();
+    }
+}
@@ -1,92 +1,261 @@
 package com.yjj.tesorflow.demo.utils;
 
+import android.util.Log;
+
 import com.yjj.tesorflow.demo.Constants;
+import com.yjj.tesorflow.demo.event.EventBus;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
  * created by yangjianjun on 2019/5/1
  * 模型下载文件解压工具
+ * <p>
+ * Installs are crash-safe: files are extracted into a staging directory next to the target, the
+ * {@link ModelManifest} is written last, and the staging directory is then renamed over the target.
+ * A process killed at any point leaves either the previous install or the new one, never a mix.
  */
 public class ModelUnzipUtils {
+    private static final String TAG = "ModelUnzipUtils";
+    private static final String STAGING_POSTFIX = ".installing";
+    private static final String RETIRED_POSTFIX = ".old";
 
     /**
-     * 解压model到指定位置
+     * 解压拷贝缓冲区大小. Inflater output lands in a Java array anyway, so a large heap buffer
+     * copied straight to the file is the fewest copies; a direct buffer would add one.
      */
-    public static void unZip(final String zipFilePath, final String targetDirPath) {
-        ExecutorUtils.execute(() -> {
-            ZipFile zipFile = null;
-            InputStream entryIn = null;
-            FileOutputStream entryOut = null;
-            try {
-                zipFile = new ZipFile(zipFilePath);
-                Enumeration enumeration = zipFile.entries();
-                File path = new File(targetDirPath);
-                boolean isSuccess = true;
-                if (path.exists() && path.isDirectory()) {
-                    isSuccess = FileUtils.deleteDir(path);
-                } else if (path.exists()) {
-                    isSuccess = FileUtils.deleteFile(path.getAbsolutePath());
-                }
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
 
-                if (isSuccess) {
-                    isSuccess = path.mkdirs();
+    /**
+     * 解压model到指定位置, 每个文件在CPU线程池中并行解压
+     * <p>
+     * Blocks until the install is done. Call it from the I/O pool, so the wait never ties up a CPU thread.
+     *
+     * @return 是否安装成功
+     */
+    public static boolean extract(final String zipFilePath, final String targetDirPath) {
+        ZipFile zipFile = null;
+        File staging = new File(targetDirPath + STAGING_POSTFIX);
+        boolean isSuccess = false;
+        List<Future<ModelManifest.Entry>> results = new ArrayList<>();
+        final AtomicBoolean abandoned = new AtomicBoolean();
+        try {
+            zipFile = new ZipFile(zipFilePath);
+            if (!prepareTargetDir(staging)) {
+                return false;
+            }
+            // ZipFile supports concurrent readers, one stream per entry.
+            Set<String> names = new HashSet<>();
+            Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+            while (enumeration.hasMoreElements()) {
+                final ZipEntry zipEntry = enumeration.nextElement();
+                if (!isModelEntry(zipEntry)) {
+                    continue;
                 }
-                if (!isSuccess) {
-                    return;
+                final String name = installedName(zipEntry);
+                if (!names.add(name)) {
+                    Log.e(TAG, zipFilePath + " has more than one " + name);
+                    return false;
                 }
-                while (enumeration.hasMoreElements()) {
-                    ZipEntry zipEntry = (ZipEntry) enumeration.nextElement();
-                    if (zipEntry.isDirectory() || zipEntry.getName().contains("../")) {
-                        continue;
+                final ZipFile source = zipFile;
+                results.add(ExecutorUtils.executeCpu(ExecutorUtils.PRIORITY_HIGH, () -> {
+                    if (abandoned.get()) {
+                        return null;
                     }
-                    String fileName = zipEntry.getName();
-                    /***
-                     * lite name
-                     * */
-                    if (!(fileName.endsWith(Constants.MODEL_FILE_NAME_POSTFIX) || fileName.endsWith(
-                        Constants.TXT_FILE_NAME_POSTFIX))) {
-                        continue;
+                    InputStream entryIn = source.getInputStream(zipEntry);
+                    try {
+                        return extractEntry(entryIn, new File(staging, name));
+                    } finally {
+                        entryIn.close();
                     }
-                    File f = new File(targetDirPath, fileName);
-                    boolean successed = true;
-                    if (f.exists()) {
-                        successed = FileUtils.deleteFile(f.getAbsolutePath());
-                    }
-                    if (successed) {
-                        successed = f.createNewFile();
-                    }
-                    if (!successed) {
-                        continue;
-                    }
-                    entryIn = zipFile.getInputStream(zipEntry);
-                    entryOut = new FileOutputStream(f);
-                    int c;
-                    byte[] by = new byte[1024];
-                    while ((c = entryIn.read(by)) != -1) {
-                        entryOut.write(by, 0, c);
-                    }
-                    entryOut.flush();
-                    entryOut.close();
-                    entryIn.close();
-                    entryOut = null;
-                    entryIn = null;
+                }));
+            }
+            ModelManifest manifest = new ModelManifest();
+            isSuccess = !results.isEmpty();
+            for (Future<ModelManifest.Entry> result : results) {
+                ModelManifest.Entry entry = result.get();
+                if (entry == null) {
+                    isSuccess = false;
+                } else {
+                    manifest.add(entry);
                 }
-                /**
-                 * 打标记 已经写入完毕
-                 */
-                File file = new File(path, Constants.INDEX_NAME);
-                if (!file.exists()) {
-                    file.createNewFile();
+            }
+            if (isSuccess) {
+                isSuccess = finishInstall(staging, new File(targetDirPath), manifest);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "can't extract " + zipFilePath, e);
+        } finally {
+            // The entry tasks read from zipFile and write into staging, so none may still be running
+            // when those go away. Queued ones are skipped; running ones finish their entry.
+            abandoned.set(true);
+            awaitAll(results);
+            if (zipFile != null) {
+                try {
+                    zipFile.close();
+                } catch (IOException ignore) {
+                }
+            }
+            if (!isSuccess) {
+                FileUtils.deleteDir(staging);
+                // The archive itself may be what is broken; fetch it again next time.
+                FileUtils.deleteFile(zipFilePath);
+            }
+        }
+        return isSuccess;
+    }
+
+    private static void awaitAll(List<Future<ModelManifest.Entry>> results) {
+        boolean interrupted = false;
+        for (Future<ModelManifest.Entry> result : results) {
+            for (; ; ) {
+                try {
+                    result.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    // Already reported by the first failure, if it matters.
+                    break;
                 }
-                ModelLoadListenerManager.getInstance().notifyFinished();
-            } catch (Exception ignore) {
             }
-        });
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean prepareTargetDir(File path) {
+        boolean isSuccess = true;
+        if (path.exists() && path.isDirectory()) {
+            isSuccess = FileUtils.deleteDir(path);
+        } else if (path.exists()) {
+            isSuccess = FileUtils.deleteFile(path.getAbsolutePath());
+        }
+        if (isSuccess) {
+            isSuccess = path.mkdirs();
+        }
+        return isSuccess;
+    }
+
+    /***
+     * lite name
+     * */
+    private static boolean isModelEntry(ZipEntry zipEntry) {
+        if (zipEntry.isDirectory() || zipEntry.getName().contains("../")) {
+            return false;
+        }
+        String fileName = zipEntry.getName();
+        return fileName.endsWith(Constants.MODEL_FILE_NAME_POSTFIX) || fileName.endsWith(
+            Constants.TXT_FILE_NAME_POSTFIX);
+    }
+
+    /**
+     * 安装后的文件名: 去掉压缩包内的目录
+     * <p>
+     * Everything is installed flat in the model directory, under the name the manifest records and
+     * the loader and {@link ModelManifest#verify} look up.
+     */
+    private static String installedName(ZipEntry zipEntry) {
+        return new File(zipEntry.getName()).getName();
+    }
+
+    /**
+     * 写出单个文件并刷到磁盘, 同时计算md5
+     *
+     * @return 清单条目, 失败返回null
+     */
+    private static ModelManifest.Entry extractEntry(InputStream entryIn, File f) throws IOException {
+        boolean successed = true;
+        if (f.exists()) {
+            successed = FileUtils.deleteFile(f.getAbsolutePath());
+        }
+        if (successed) {
+            successed = f.createNewFile();
+        }
+        if (!successed) {
+            return null;
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (Exception e) {
+            return null;
+        }
+        long size = 0;
+        FileOutputStream entryOut = new FileOutputStream(f);
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int c;
+            while ((c = entryIn.read(buffer)) != -1) {
+                entryOut.write(buffer, 0, c);
+                md.update(buffer, 0, c);
+                size += c;
+            }
+            entryOut.flush();
+            entryOut.getFD().sync();
+        } finally {
+            entryOut.close();
+        }
+        return new ModelManifest.Entry(f.getName(), size, Md5Utils.bytesToHex(md.digest()));
+    }
+
+    /**
+     * 写入清单(即完成标记)后把暂存目录整体替换到目标位置
+     */
+    private static boolean finishInstall(File staging, File target, ModelManifest manifest) throws IOException {
+        manifest.write(new File(staging, Constants.INDEX_NAME));
+        if (!commitInstall(staging, target)) {
+            return false;
+        }
+        EventBus.getInstance().publishModelLoaded();
+        return true;
+    }
+
+    private static boolean commitInstall(File staging, File target) {
+        File retired = new File(target.getPath() + RETIRED_POSTFIX);
+        if (retired.exists()) {
+            FileUtils.deleteDir(retired);
+        }
+        if (target.exists() && !target.renameTo(retired)) {
+            return false;
+        }
+        if (!staging.renameTo(target)) {
+            retired.renameTo(target);
+            return false;
+        }
+        FileUtils.deleteDir(retired);
+        return true;
+    }
+
+    /**
+     * 进程在两次rename之间被杀时, 目标目录不存在; 从已完整写入清单的暂存或旧目录恢复
+     */
+    public static void recoverInterruptedInstall(File target) {
+        if (target.exists()) {
+            return;
+        }
+        File staging = new File(target.getPath() + STAGING_POSTFIX);
+        File retired = new File(target.getPath() + RETIRED_POSTFIX);
+        if (ModelManifest.read(new File(staging, Constants.INDEX_NAME)) != null && staging.renameTo(target)) {
+            FileUtils.deleteDir(retired);
+        } else if (ModelManifest.read(new File(retired, Constants.INDEX_NAME)) != null) {
+            retired.renameTo(target);
+        }
     }
-}
\ No newline at end of file
+}
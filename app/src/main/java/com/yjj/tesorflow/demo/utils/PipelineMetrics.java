@@ -0,0 +1,198 @@
+package com.yjj.tesorflow.demo.utils;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.yjj.tesorflow.demo.audio.AudioRingBuffer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 识别流水线各阶段耗时统计
+ * <p>
+ * One {@link LatencyHistogram} per stage plus counters for audio overruns and frames the recognizer
+ * fell too far behind to process. Stages are recorded from the audio threads with
+ * {@link System#nanoTime()}; {@link #snapshot()} and the periodic dump run elsewhere.
+ */
+public class PipelineMetrics {
+    private static final String TAG = "PipelineMetrics";
+
+    /**
+     * Reading the window out of the recording ring and normalizing it into the input tensor; the two
+     * are fused into one pass, so they are timed together.
+     */
+    public static final int STAGE_AUDIO_INPUT = 0;
+    public static final int STAGE_VAD = 1;
+    public static final int STAGE_INFERENCE = 2;
+    public static final int STAGE_SMOOTHING = 3;
+    /**
+     * From posting a result to the UI thread until it runs there.
+     */
+    public static final int STAGE_UI_DISPATCH = 4;
+    /**
+     * A whole recognition iteration, from the scheduler waking up to the result being posted.
+     */
+    public static final int STAGE_TOTAL = 5;
+    private static final String[] STAGE_NAMES = { "audio_input", "vad", "inference", "smoothing", "ui_dispatch",
+        "total" };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong timeToFirstInferenceNanos = new AtomicLong();
+    private volatile AudioRingBuffer audioSource;
+
+    private Handler dumpHandler;
+    private long dumpIntervalMs;
+    private File dumpFile;
+    private final Runnable dumpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dump();
+            Handler handler = dumpHandler;
+            if (handler != null) {
+                handler.postDelayed(this, dumpIntervalMs);
+            }
+        }
+    };
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    /**
+     * Counts inference strides that were skipped because the recognizer was running late.
+     */
+    public void recordDroppedFrames(long frames) {
+        if (frames > 0) {
+            droppedFrames.addAndGet(frames);
+        }
+    }
+
+    /**
+     * Time from the screen opening to its first inference; only the first call counts.
+     */
+    public void recordTimeToFirstInference(long nanos) {
+        timeToFirstInferenceNanos.compareAndSet(0, Math.max(1, nanos));
+    }
+
+    /**
+     * The ring whose overrun counters are reported alongside the latencies.
+     */
+    public void setAudioSource(AudioRingBuffer ring) {
+        audioSource = ring;
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        for (int i = 0; i < histograms.length; ++i) {
+            LatencyHistogram histogram = histograms[i];
+            snapshot.count[i] = histogram.getCount();
+            snapshot.p50Nanos[i] = histogram.percentile(50);
+            snapshot.p90Nanos[i] = histogram.percentile(90);
+            snapshot.p99Nanos[i] = histogram.percentile(99);
+            snapshot.maxNanos[i] = histogram.getMaxNanos();
+        }
+        snapshot.droppedFrames = droppedFrames.get();
+        snapshot.timeToFirstInferenceNanos = timeToFirstInferenceNanos.get();
+        AudioRingBuffer ring = audioSource;
+        if (ring != null) {
+            snapshot.audioOverruns = ring.getOverrunCount();
+            snapshot.droppedSamples = ring.getDroppedSamples();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Logs a snapshot every {@code intervalMs} on {@code handler}'s thread, also appending it to
+     * {@code file} if one is given, until {@link #stopPeriodicDump()}.
+     */
+    public synchronized void startPeriodicDump(Handler handler, long intervalMs, File file) {
+        stopPeriodicDump();
+        dumpHandler = handler;
+        dumpIntervalMs = intervalMs;
+        dumpFile = file;
+        handler.postDelayed(dumpRunnable, intervalMs);
+    }
+
+    public synchronized void stopPeriodicDump() {
+        if (dumpHandler != null) {
+            dumpHandler.removeCallbacks(dumpRunnable);
+            dumpHandler = null;
+        }
+    }
+
+    private void dump() {
+        String text = snapshot().toString();
+        Log.i(TAG, text);
+        File file = dumpFile;
+        if (file == null) {
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file, true);
+            writer.write(System.currentTimeMillis() + "\n" + text + "\n");
+        } catch (IOException e) {
+            Log.w(TAG, "can't write metrics to " + file, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        droppedFrames.set(0);
+    }
+
+    /**
+     * Point-in-time copy of all stages, indexed by the STAGE_ constants.
+     */
+    public static class Snapshot {
+        public final long[] count = new long[STAGE_NAMES.length];
+        public final long[] p50Nanos = new long[STAGE_NAMES.length];
+        public final long[] p90Nanos = new long[STAGE_NAMES.length];
+        public final long[] p99Nanos = new long[STAGE_NAMES.length];
+        public final long[] maxNanos = new long[STAGE_NAMES.length];
+        public long droppedFrames;
+        public long audioOverruns;
+        public long droppedSamples;
+        public long timeToFirstInferenceNanos;
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < STAGE_NAMES.length; ++i) {
+                builder.append(String.format(Locale.US, "%-12s n=%-7d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms\n",
+                    STAGE_NAMES[i], count[i], p50Nanos[i] / 1e6, p90Nanos[i] / 1e6, p99Nanos[i] / 1e6,
+                    maxNanos[i] / 1e6));
+            }
+            builder.append("dropped frames=").append(droppedFrames).append(" audio overruns=").append(audioOverruns)
+                .append(" dropped samples=").append(droppedSamples)
+                .append(String.format(Locale.US, " first inference=%.1fms", timeToFirstInferenceNanos / 1e6));
+            return builder.toString();
+        }
+    }
+}
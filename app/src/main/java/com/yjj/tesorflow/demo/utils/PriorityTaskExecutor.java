@@ -0,0 +1,126 @@
+package com.yjj.tesorflow.demo.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 带优先级的线程池
+ * <p>
+ * A fixed number of named threads taking work from a priority queue: lower priority values run first,
+ * equal priorities in submission order. Every task is a {@link Future}, so callers can cancel it, and
+ * the time each task spent queued is recorded in a {@link LatencyHistogram}.
+ */
+public class PriorityTaskExecutor extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String name;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    public PriorityTaskExecutor(final String name, int threads) {
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, name + "-" + count.incrementAndGet());
+                }
+            });
+        this.name = name;
+        // Idle pools shouldn't keep threads around for the life of the process.
+        allowCoreThreadTimeOut(true);
+    }
+
+    public Future<?> submit(int priority, Runnable task) {
+        PrioritizedTask<Object> futureTask = new PrioritizedTask<>(task, null, priority, sequence.getAndIncrement());
+        execute(futureTask);
+        return futureTask;
+    }
+
+    public <T> Future<T> submit(int priority, Callable<T> task) {
+        PrioritizedTask<T> futureTask = new PrioritizedTask<>(task, priority, sequence.getAndIncrement());
+        execute(futureTask);
+        return futureTask;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        // Everything in the queue has to be comparable, including plain execute() calls.
+        if (!(command instanceof PrioritizedTask)) {
+            command = new PrioritizedTask<>(command, null, ExecutorUtils.PRIORITY_NORMAL, sequence.getAndIncrement());
+        }
+        super.execute(command);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PrioritizedTask<>(runnable, value, ExecutorUtils.PRIORITY_NORMAL, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PrioritizedTask<>(callable, ExecutorUtils.PRIORITY_NORMAL, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof PrioritizedTask) {
+            queueWait.record(System.nanoTime() - ((PrioritizedTask) r).enqueueNanos);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * How long tasks waited between submission and starting to run.
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    private static class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+        final int priority;
+        final long sequence;
+        final long enqueueNanos = System.nanoTime();
+
+        PrioritizedTask(Callable<T> callable, int priority, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        PrioritizedTask(Runnable runnable, T result, int priority, long sequence) {
+            super(runnable, result);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -7,125 +7,175 @@ import android.util.Log;
 
 import com.yjj.tesorflow.demo.Constants;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * created by yangjianjun on 2019/5/1
  * tensorflow model file 工具类
  */
 public class TensorModelFileUtils {
+    private static final String TAG = "TensorModelFileUtils";
     private static Handler mainHandler = new Handler(Looper.getMainLooper());
 
+    /**
+     * 安装校验失败时每个模型只自动修复一次, 避免坏的下载源导致无限重装
+     */
+    private static final Set<String> repairedUrls = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * 一个已安装模型映射后的文件
+     */
+    public static class ModelFiles {
+        public final File dir;
+        public final String modelName;
+        public final MappedByteBuffer model;
+        public final List<String> labels;
+        /**
+         * 快速启动时读到的预计算信息, 走完整校验时为null
+         */
+        public final ModelSidecar sidecar;
+
+        ModelFiles(File dir, String modelName, MappedByteBuffer model, List<String> labels, ModelSidecar sidecar) {
+            this.dir = dir;
+            this.modelName = modelName;
+            this.model = model;
+            this.labels = labels;
+            this.sidecar = sidecar;
+        }
+    }
+
     /** Memory-map the model file in Assets. */
     public static void loadModelFile(final Context context, final LoadCallback callback) {
-        ExecutorUtils.execute(() -> {
-            File dir = FileUtils.getModelPath(context, Constants.MODEL_URL);
-            if (dir == null) {
-                performLoadFailure(callback);
-                return;
-            }
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
-            if (!new File(dir, Constants.INDEX_NAME).exists()) {
-                performLoadFailure(callback);
-                return;
-            }
-            String[] list = dir.list();
-            if (list == null) {
-                performLoadFailure(callback);
-                return;
-            }
-            String di = null;
-            for (String p : list) {
-                if (p.endsWith(Constants.MODEL_FILE_NAME_POSTFIX)) {
-                    di = p;
-                    break;
-                }
-            }
-            if (di == null) {
-                performLoadFailure(callback);
-                return;
-            }
-            FileInputStream inputStream = null;
-            try {
-                inputStream = new FileInputStream(new File(dir, di));
-            } catch (Exception e) {
-                Log.d("TensorModelFileUtils", e.getMessage());
-            }
-            if (inputStream == null) {
-                performLoadFailure(callback);
-                return;
-            }
-            FileChannel input = inputStream.getChannel();
-            if (input == null) {
-                performLoadFailure(callback);
-                return;
-            }
-            MappedByteBuffer resultMBB = null;
-            try {
-                resultMBB = input.map(FileChannel.MapMode.READ_ONLY, input.position(), input.size());
-            } catch (Exception ignore) {
+        loadModelFile(context, Constants.MODEL_URL, callback);
+    }
 
-            }
-            try {
-                input.close();
-            } catch (IOException e) {
-            }
-            String txt = null;
-            for (String p : list) {
-                if (p.endsWith(Constants.TXT_FILE_NAME_POSTFIX)) {
-                    txt = p;
-                    break;
-                }
-            }
-            if (txt == null) {
-                performLoadFailure(callback);
-                return;
-            }
-            List<String> labels = loadLabel(new File(dir, txt).getAbsolutePath());
-            final MappedByteBuffer finalResultBB = resultMBB;
+    /**
+     * 在I/O线程映射{@code url}对应的已安装模型, 主线程回调
+     */
+    public static void loadModelFile(final Context context, final String url, final LoadCallback callback) {
+        ExecutorUtils.executeIo(ExecutorUtils.PRIORITY_HIGH, () -> {
+            ModelFiles files = load(context, url);
             mainHandler.post(() -> {
                 if (callback != null) {
-                    callback.onLoad(finalResultBB, labels);
+                    callback.onLoad(files == null ? null : files.model, files == null ? null : files.labels);
                 }
             });
         });
     }
 
-    private static void performLoadFailure(LoadCallback callback) {
-
-        mainHandler.post(() -> {
-            if (callback != null) {
-                callback.onLoad(null, null);
+    /**
+     * 在调用线程中校验并映射{@code url}对应的已安装模型. 未安装时启动安装, 安装损坏时删除并重装一次.
+     *
+     * @return 映射后的模型和标签, 不可用时返回null
+     */
+    public static ModelFiles load(Context context, String url) {
+        File dir = FileUtils.getModelPath(context, url);
+        if (dir == null) {
+            return null;
+        }
+        ModelUnzipUtils.recoverInterruptedInstall(dir);
+        ModelFiles warm = loadWarm(context, dir);
+        if (warm != null) {
+            return warm;
+        }
+        File index = new File(dir, Constants.INDEX_NAME);
+        if (!index.exists()) {
+            // Not installed yet. Joins the install the application started, or resumes one
+            // that failed earlier; either way listeners are notified when it finishes.
+            new TensorModelLoader(url).load(context);
+            return null;
+        }
+        ModelManifest manifest = ModelManifest.read(index);
+        if (manifest == null) {
+            // An empty marker from an older install, or a damaged one.
+            repair(context, url, dir);
+            return null;
+        }
+        String di = null;
+        String txt = null;
+        for (ModelManifest.Entry entry : manifest.getEntries()) {
+            if (di == null && entry.name.endsWith(Constants.MODEL_FILE_NAME_POSTFIX)) {
+                di = entry.name;
+            } else if (txt == null && entry.name.endsWith(Constants.TXT_FILE_NAME_POSTFIX)) {
+                txt = entry.name;
             }
-        });
+        }
+        if (di == null || txt == null) {
+            repair(context, url, dir);
+            return null;
+        }
+        File modelFile = new File(dir, di);
+        MappedByteBuffer resultMBB = map(modelFile, 0, modelFile.length());
+        // The model is hashed through the mapping itself, which also faults its pages in
+        // before the interpreter needs them.
+        if (resultMBB == null || !manifest.verify(dir, di, resultMBB)) {
+            Log.w(TAG, "model install in " + dir + " failed verification");
+            repair(context, url, dir);
+            return null;
+        }
+        List<String> labels = LabelFileUtils.loadLabel(new File(dir, txt).getAbsolutePath());
+        ModelDiskCache.getInstance(context).touch(dir);
+        return new ModelFiles(dir, di, resultMBB, labels, null);
     }
 
-    public static interface LoadCallback {
-        public void onLoad(MappedByteBuffer outBB, List<String> label);
+    /**
+     * 有匹配的预计算信息时直接映射模型, 跳过目录扫描, 清单, md5和标签解析
+     */
+    private static ModelFiles loadWarm(Context context, File dir) {
+        ModelSidecar sidecar = ModelSidecar.read(dir);
+        if (sidecar == null) {
+            return null;
+        }
+        if (!sidecar.matches(dir)) {
+            ModelSidecar.delete(dir);
+            return null;
+        }
+        MappedByteBuffer model = map(new File(dir, sidecar.modelName), sidecar.modelOffset, sidecar.modelLength);
+        if (model == null) {
+            return null;
+        }
+        ModelDiskCache.getInstance(context).touch(dir);
+        return new ModelFiles(dir, sidecar.modelName, model, sidecar.labels, sidecar);
     }
 
-    private static List<String> loadLabel(String path) {
-        BufferedReader br = null;
-        List<String> labels = new ArrayList<>(16);
+    private static MappedByteBuffer map(File file, long offset, long length) {
+        FileInputStream inputStream = null;
         try {
-            br = new BufferedReader(new InputStreamReader(new FileInputStream(new File(path))));
-            String line;
-            while ((line = br.readLine()) != null) {
-                labels.add(line);
+            inputStream = new FileInputStream(file);
+            return inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (Exception e) {
+            Log.d(TAG, "can't map " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignore) {
+                }
             }
-            br.close();
-        } catch (IOException e) {
         }
-        return labels;
+    }
+
+    /**
+     * 删除损坏的安装并重新安装一次
+     */
+    private static void repair(Context context, String url, File dir) {
+        if (!repairedUrls.add(url)) {
+            return;
+        }
+        ModelDiskCache.getInstance(context).remove(dir);
+        new TensorModelLoader(url).load(context);
+    }
+
+    public static interface LoadCallback {
+        public void onLoad(MappedByteBuffer outBB, List<String> label);
     }
 }
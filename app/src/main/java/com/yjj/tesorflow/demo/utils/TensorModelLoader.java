@@ -1,71 +1,137 @@
 package com.yjj.tesorflow.demo.utils;
 
-import android.app.Application;
+import android.content.Context;
+import android.util.Log;
 
-import com.liulishuo.filedownloader.BaseDownloadTask;
-import com.liulishuo.filedownloader.FileDownloadSampleListener;
-import com.liulishuo.filedownloader.FileDownloader;
 import com.yjj.tesorflow.demo.Constants;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
 
 /**
  * created by yangjianjun on 2019/5/1
  * model加载器
  */
 public class TensorModelLoader {
-
+    private static final String TAG = "TensorModelLoader";
+    private static volatile OkHttpClient defaultClient;
     /**
-     * 下载model
+     * 正在安装的模型目录, 同一目录同一时间只允许一个安装任务
+     * <p>
+     * {@code ConcurrentHashMap.newKeySet()} is API 24; this is the same set on minSdk 19.
      */
-    public void load(Application context) {
-        File file = FileUtils.getModelPath(context, Constants.MODEL_URL);
-        if (new File(file, Constants.INDEX_NAME).exists()) {
-            return;
-        }
-        ExecutorUtils.execute(() -> {
-            String downloadPath = FileUtils.getDownloadFile(context, Constants.MODEL_URL).getAbsolutePath();
-            BaseDownloadTask singleTask = FileDownloader.getImpl()
-                .create(Constants.MODEL_URL)
-                .setPath(downloadPath)
-                .setListener(new FileDownloadSampleListener() {
-                    @Override
-                    protected void pending(BaseDownloadTask task, int soFarBytes, int totalBytes) {
+    private static final Set<String> loading = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
-                    }
+    private final OkHttpClient client;
+    private final String url;
 
-                    @Override
-                    protected void progress(BaseDownloadTask task, int soFarBytes, int totalBytes) {
+    public TensorModelLoader() {
+        this(Constants.MODEL_URL);
+    }
 
-                    }
+    public TensorModelLoader(String url) {
+        this(getDefaultClient(), url);
+    }
 
-                    @Override
-                    protected void blockComplete(BaseDownloadTask task) {
+    /**
+     * @param client 下载用的客户端, 测试时可指向本地服务器
+     * @param url    模型zip地址
+     */
+    public TensorModelLoader(OkHttpClient client, String url) {
+        this.client = client;
+        this.url = url;
+    }
 
-                    }
+    private static OkHttpClient getDefaultClient() {
+        if (defaultClient == null) {
+            synchronized (TensorModelLoader.class) {
+                if (defaultClient == null) {
+                    defaultClient = new OkHttpClient.Builder()
+                        .connectTimeout(15, TimeUnit.SECONDS)
+                        .readTimeout(30, TimeUnit.SECONDS)
+                        .build();
+                }
+            }
+        }
+        return defaultClient;
+    }
 
-                    @Override
-                    protected void completed(BaseDownloadTask task) {
-                        File file = new File(downloadPath);
-                        String path = file.getAbsolutePath();
-                        ModelUnzipUtils.unZip(path,
-                            FileUtils.getModelPath(context, Constants.MODEL_URL).getAbsolutePath());
-                    }
+    /**
+     * 下载并安装model, 已安装或正在安装时直接返回; 已下载的zip会直接重新解压
+     */
+    public void load(Context context) {
+        File file = FileUtils.getModelPath(context, url);
+        if (new File(file, Constants.INDEX_NAME).exists()) {
+            return;
+        }
+        // Keyed by directory: installs of other models go ahead, and share no files with this one.
+        final String key = file.getAbsolutePath();
+        if (!loading.add(key)) {
+            return;
+        }
+        File downloadFile = FileUtils.getDownloadFile(context, url);
+        ModelDiskCache cache = ModelDiskCache.getInstance(context);
+        // Pinned until the install is recorded and trimmed, so neither the zip nor the new directory
+        // can be evicted by a trim running meanwhile, or by the one that follows the install.
+        cache.pin(downloadFile);
+        cache.pin(file);
+        ExecutorUtils.executeIo(ExecutorUtils.PRIORITY_HIGH, () -> {
+            try {
+                // An already downloaded zip is extracted again rather than fetched again; a failed
+                // extraction deletes it, so a bad archive is only retried once.
+                if (!downloadFile.exists() && !download(downloadFile, cache)) {
+                    return;
+                }
+                install(cache, downloadFile, file);
+            } finally {
+                cache.unpin(downloadFile);
+                cache.unpin(file);
+                loading.remove(key);
+            }
+        });
+    }
 
-                    @Override
-                    protected void paused(BaseDownloadTask task, int soFarBytes, int totalBytes) {
-                    }
+    /**
+     * 解压并从磁盘校验, 成功后删除已用完的zip并按预算清理缓存; zip和目录由调用方固定
+     */
+    private static void install(ModelDiskCache cache, File zip, File dir) {
+        if (!ModelUnzipUtils.extract(zip.getAbsolutePath(), dir.getAbsolutePath())) {
+            return;
+        }
+        ModelManifest manifest = ModelManifest.read(new File(dir, Constants.INDEX_NAME));
+        if (manifest != null && manifest.verify(dir)) {
+            cache.remove(zip);
+            cache.recordInstall(dir, manifest);
+        }
+        cache.trim();
+    }
 
-                    @Override
-                    protected void error(BaseDownloadTask task, Throwable e) {
-                    }
+    private boolean download(File downloadFile, ModelDiskCache cache) {
+        ChunkedDownloader downloader = new ChunkedDownloader(client, url, downloadFile,
+            ChunkedDownloader.DEFAULT_CONNECTIONS, new ChunkedDownloader.Listener() {
+            @Override
+            public void onProgress(long downloadedBytes, long totalBytes, long bytesPerSecond) {
+                Log.d(TAG, "model download " + downloadedBytes + "/" + totalBytes + " bytes, "
+                    + bytesPerSecond / 1024 + " KB/s");
+            }
 
-                    @Override
-                    protected void warn(BaseDownloadTask task) {
-                    }
-                });
+            @Override
+            public void onCompleted(File file) {
+                // Counted against the budget until the install removes it, or a failed one is retried.
+                cache.recordDownload(file);
+            }
 
-            singleTask.start();
+            @Override
+            public void onError(Exception e) {
+                // Progress is checkpointed; the next load() resumes from there.
+                Log.e(TAG, "model download failed, will resume on next load", e);
+            }
         });
+        return downloader.download();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package com.yjj.tesorflow.demo;
+
+import com.yjj.tesorflow.demo.utils.LabelTable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 平滑器换模型测试: 切到标签集不同的第二个模型
+ * <p>
+ * A model swap in RecognitionPipeline comes down to {@link RecognizeCommands#update(LabelTable)} on
+ * the recognizer thread. These tests swap the keyword set for one with another size, other labels
+ * and its own thresholds, as a second registered model would.
+ */
+public class RecognizeCommandsTest {
+    private static final long STEP_MS = 30;
+
+    private static final LabelTable ACTIONS = LabelTable.build(Arrays.asList("_silence_", "_unknown_", "yes",
+        "no", "up", "down", "left", "right", "on", "off", "stop", "go"));
+    // A wake-word model: fewer outputs, and a stricter on threshold with hysteresis for "hey".
+    private static final LabelTable WAKE_WORD =
+        LabelTable.build(Arrays.asList("_silence_", "_unknown_", "hey\t0.8\t0.3", "stop"));
+
+    private RecognizeCommands recognizeCommands;
+    private long time;
+
+    @Before
+    public void setUp() {
+        recognizeCommands = new RecognizeCommands(ACTIONS, 1000, 0.5f, 1500, 3, STEP_MS);
+        time = 0;
+    }
+
+    private static float[] scores(LabelTable table, String label, float score) {
+        float[] scores = new float[table.size()];
+        int index = table.indexOf(label);
+        scores[index] = score;
+        // The rest goes to silence, so the top label is the one asked for.
+        scores[table.indexOf(RecognizeCommands.SILENCE_LABEL)] += 1.0f - score;
+        return scores;
+    }
+
+    /**
+     * Feeds the same scores for a while.
+     *
+     * @return the label that fired, or null
+     */
+    private String feed(float[] scores, int count) {
+        String fired = null;
+        for (int i = 0; i < count; ++i) {
+            time += STEP_MS;
+            RecognizeCommands.RecognitionResult result = recognizeCommands.processLatestResults(scores, time);
+            if (result.isNewCommand) {
+                fired = result.foundCommand;
+            }
+        }
+        return fired;
+    }
+
+    @Test
+    public void swapsToAnotherLabelSet() {
+        assertEquals("yes", feed(scores(ACTIONS, "yes", 0.9f), 5));
+
+        recognizeCommands.update(WAKE_WORD);
+        time += 2000;
+        assertEquals("hey", feed(scores(WAKE_WORD, "hey", 0.9f), 5));
+    }
+
+    @Test
+    public void rejectsScoresOfTheRetiredModel() {
+        recognizeCommands.update(WAKE_WORD);
+        try {
+            recognizeCommands.processLatestResults(new float[ACTIONS.size()], STEP_MS);
+            fail("accepted " + ACTIONS.size() + " scores for " + WAKE_WORD.size() + " labels");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    @Test
+    public void dropsTheOldAverageOnSwap() {
+        // Not yet enough results for "yes" to fire when the model changes.
+        assertNull(feed(scores(ACTIONS, "yes", 0.9f), 2));
+
+        recognizeCommands.update(WAKE_WORD);
+        // Two results of the new model alone are below the minimum count.
+        assertNull(feed(scores(WAKE_WORD, "stop", 0.9f), 2));
+        assertEquals("stop", feed(scores(WAKE_WORD, "stop", 0.9f), 1));
+    }
+
+    @Test
+    public void takesTheNewModelsThresholds() {
+        recognizeCommands.update(WAKE_WORD);
+        // Above the default 0.5, below the 0.8 the wake-word label file asks for.
+        assertNull(feed(scores(WAKE_WORD, "hey", 0.7f), 10));
+        assertEquals("hey", feed(scores(WAKE_WORD, "hey", 0.95f), 40));
+        // Still above its 0.3 off threshold, so it doesn't fire again.
+        time += 2000;
+        assertNull(feed(scores(WAKE_WORD, "hey", 0.95f), 10));
+    }
+
+    @Test
+    public void swapsBackWithoutCarryingState() {
+        recognizeCommands.update(WAKE_WORD);
+        assertEquals("hey", feed(scores(WAKE_WORD, "hey", 0.9f), 5));
+
+        recognizeCommands.update(ACTIONS);
+        time += 2000;
+        assertEquals("go", feed(scores(ACTIONS, "go", 0.9f), 5));
+    }
+}
@@ -0,0 +1,261 @@
+package com.yjj.tesorflow.demo.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 分片下载器测试, 用本地MockWebServer代替模型服务器
+ */
+public class ChunkedDownloaderTest {
+    private static final int LENGTH = 2 * 1024 * 1024 + 17;
+    private static final String ETAG = "\"v1\"";
+    private static final String PROBE = "bytes=0-0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] content = new byte[LENGTH];
+    private final RangeDispatcher dispatcher = new RangeDispatcher();
+    private MockWebServer server;
+    private OkHttpClient client;
+    private String url;
+    private File target;
+
+    /**
+     * Serves {@link #content}, honouring Range unless told not to, and injects failures on request.
+     */
+    private class RangeDispatcher extends Dispatcher {
+        final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean honorRange = true;
+        final AtomicInteger serverErrors = new AtomicInteger();
+        final AtomicInteger droppedBodies = new AtomicInteger();
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            String range = request.getHeader("Range");
+            ranges.add(range == null ? "" : range);
+            if (serverErrors.getAndDecrement() > 0) {
+                return new MockResponse().setResponseCode(503);
+            }
+            if (!honorRange || range == null) {
+                return new MockResponse().setBody(new Buffer().write(content));
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Integer.parseInt(bounds[1]);
+            MockResponse response = new MockResponse().setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + LENGTH)
+                .setHeader("ETag", ETAG)
+                .setBody(new Buffer().write(content, start, end - start + 1));
+            if (!PROBE.equals(range) && droppedBodies.getAndDecrement() > 0) {
+                response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+            }
+            return response;
+        }
+
+        List<String> chunkRanges() {
+            List<String> result = new ArrayList<>();
+            synchronized (ranges) {
+                for (String range : ranges) {
+                    if (!PROBE.equals(range)) {
+                        result.add(range);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class RecordingListener implements ChunkedDownloader.Listener {
+        File completed;
+        Exception error;
+
+        @Override
+        public void onProgress(long downloadedBytes, long totalBytes, long bytesPerSecond) {
+        }
+
+        @Override
+        public void onCompleted(File file) {
+            completed = file;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            error = e;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(LENGTH).nextBytes(content);
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        client = new OkHttpClient.Builder().readTimeout(10, TimeUnit.SECONDS).build();
+        url = server.url("/conv_actions.zip").toString();
+        target = new File(folder.getRoot(), "conv_actions.zip");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private ChunkedDownloader downloader(RecordingListener listener) {
+        ChunkedDownloader downloader =
+            new ChunkedDownloader(client, url, target, ChunkedDownloader.DEFAULT_CONNECTIONS, listener);
+        downloader.setInitialBackoffMs(10);
+        return downloader;
+    }
+
+    private static String range(long start, long end) {
+        return "bytes=" + start + "-" + end;
+    }
+
+    private void assertDownloaded(RecordingListener listener) throws IOException {
+        assertNull(listener.error);
+        assertEquals(target, listener.completed);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(new File(target.getPath() + ".part").exists());
+        assertFalse(new File(target.getPath() + ".chunks").exists());
+    }
+
+    @Test
+    public void splitsIntoRangeRequests() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        assertTrue(downloader(listener).download());
+
+        assertDownloaded(listener);
+        assertEquals(PROBE, dispatcher.ranges.get(0));
+        long chunk = LENGTH / 3;
+        List<String> ranges = dispatcher.chunkRanges();
+        Collections.sort(ranges);
+        List<String> expected = new ArrayList<>();
+        expected.add(range(0, chunk - 1));
+        expected.add(range(chunk, 2 * chunk - 1));
+        expected.add(range(2 * chunk, LENGTH - 1));
+        Collections.sort(expected);
+        assertEquals(expected, ranges);
+    }
+
+    @Test
+    public void resumesFromSavedChunks() throws IOException {
+        long chunk = LENGTH / 3;
+        long firstDone = 300 * 1000;
+        // The first chunk got partway, the second finished, the third never started.
+        RandomAccessFile part = new RandomAccessFile(target.getPath() + ".part", "rw");
+        try {
+            part.setLength(LENGTH);
+            part.write(content, 0, (int) firstDone);
+            part.seek(chunk);
+            part.write(content, (int) chunk, (int) chunk);
+        } finally {
+            part.close();
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(target.getPath() + ".chunks"), "UTF-8");
+        try {
+            writer.write("version=1\n" + url + "\n" + LENGTH + "\t" + ETAG + "\n");
+            writer.write(0 + "\t" + (chunk - 1) + "\t" + firstDone + "\n");
+            writer.write(chunk + "\t" + (2 * chunk - 1) + "\t" + chunk + "\n");
+            writer.write(2 * chunk + "\t" + (LENGTH - 1) + "\t" + 0 + "\n");
+        } finally {
+            writer.close();
+        }
+
+        RecordingListener listener = new RecordingListener();
+        assertTrue(downloader(listener).download());
+
+        assertDownloaded(listener);
+        List<String> ranges = dispatcher.chunkRanges();
+        Collections.sort(ranges);
+        List<String> expected = new ArrayList<>();
+        expected.add(range(firstDone, chunk - 1));
+        expected.add(range(2 * chunk, LENGTH - 1));
+        Collections.sort(expected);
+        assertEquals(expected, ranges);
+    }
+
+    @Test
+    public void fallsBackToWholeDownloadWhenRangeIsIgnored() throws IOException {
+        dispatcher.honorRange = false;
+        RecordingListener listener = new RecordingListener();
+        assertTrue(downloader(listener).download());
+
+        assertDownloaded(listener);
+        assertEquals(2, dispatcher.ranges.size());
+        assertEquals(PROBE, dispatcher.ranges.get(0));
+        // The whole file, without a Range header.
+        assertEquals("", dispatcher.ranges.get(1));
+    }
+
+    @Test
+    public void retriesServerErrorsWithBackoff() throws IOException {
+        dispatcher.serverErrors.set(3);
+        RecordingListener listener = new RecordingListener();
+        long startNanos = System.nanoTime();
+        assertTrue(downloader(listener).download());
+
+        assertDownloaded(listener);
+        // The probe absorbs all three failures, waiting 10 + 20 + 40 ms.
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(70));
+        assertEquals(PROBE, dispatcher.ranges.get(3));
+        assertEquals(3, dispatcher.chunkRanges().size());
+    }
+
+    @Test
+    public void resumesChunkAfterDroppedConnection() throws IOException {
+        dispatcher.droppedBodies.set(2);
+        RecordingListener listener = new RecordingListener();
+        assertTrue(downloader(listener).download());
+
+        assertDownloaded(listener);
+        // Each drop costs one more request for the rest of its chunk.
+        assertEquals(3 + 2, dispatcher.chunkRanges().size());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws IOException {
+        dispatcher.serverErrors.set(Integer.MAX_VALUE);
+        RecordingListener listener = new RecordingListener();
+        assertFalse(downloader(listener).download());
+
+        assertNotNull(listener.error);
+        assertNull(listener.completed);
+        assertFalse(target.exists());
+        // The first try and five retries.
+        assertEquals(6, dispatcher.ranges.size());
+    }
+}
@@ -0,0 +1,81 @@
+package com.yjj.tesorflow.demo.benchmark;
+
+import com.yjj.tesorflow.demo.audio.AudioRingBuffer;
+import com.yjj.tesorflow.demo.audio.PcmConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 录音环形缓冲拷贝与 PCM 转换基准
+ * <p>
+ * Covers getting one 16000-sample window from the record thread's ring into the model input: the
+ * fused ring-to-direct-buffer conversion the recognizer uses, the plain ring snapshot, and the
+ * original copy-then-divide into float[16000][1] for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AudioInputBenchmark {
+    private static final int RECORDING_LENGTH = 16000;
+    private static final int READ_LENGTH = 640;
+
+    private AudioRingBuffer ring;
+    private short[] readBuffer;
+    private short[] window;
+    private FloatBuffer modelInput;
+
+    @Setup
+    public void setUp() {
+        ring = new AudioRingBuffer(RECORDING_LENGTH * 2);
+        readBuffer = new short[READ_LENGTH];
+        Random random = new Random(42);
+        for (int i = 0; i < READ_LENGTH; ++i) {
+            readBuffer[i] = (short) random.nextInt();
+        }
+        // Fill past capacity so the window wraps around the end of the ring.
+        for (int written = 0; written < RECORDING_LENGTH * 3 + READ_LENGTH / 2; written += READ_LENGTH) {
+            ring.write(readBuffer, 0, READ_LENGTH);
+        }
+        window = new short[RECORDING_LENGTH];
+        modelInput =
+            ByteBuffer.allocateDirect(RECORDING_LENGTH * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    @Benchmark
+    public long ringToModelInput() {
+        return PcmConverter.convertLatest(ring, RECORDING_LENGTH, modelInput);
+    }
+
+    @Benchmark
+    public long ringSnapshot() {
+        return ring.snapshot(window, RECORDING_LENGTH);
+    }
+
+    @Benchmark
+    public void ringWrite() {
+        ring.write(readBuffer, 0, READ_LENGTH);
+    }
+
+    @Benchmark
+    public float[][] legacyCopyAndDivide() {
+        ring.snapshot(window, RECORDING_LENGTH);
+        float[][] floatInputBuffer = new float[RECORDING_LENGTH][1];
+        for (int i = 0; i < RECORDING_LENGTH; ++i) {
+            floatInputBuffer[i][0] = window[i] / 32767.0f;
+        }
+        return floatInputBuffer;
+    }
+}
@@ -0,0 +1,67 @@
+package com.yjj.tesorflow.demo.benchmark;
+
+import com.yjj.tesorflow.demo.utils.LabelFileUtils;
+import com.yjj.tesorflow.demo.utils.Md5Utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * 模型文件相关基准: url md5 与 label 解析
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModelFileBenchmark {
+    private static final String MODEL_URL =
+        "http://storage.googleapis.com/download.tensorflow.org/models/tflite/conv_actions_tflite.zip";
+
+    @Param({ "12", "500" })
+    public int labelCount;
+
+    private File labelFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        labelFile = File.createTempFile("labels", ".txt");
+        Writer writer = new FileWriter(labelFile);
+        try {
+            writer.write("_silence_\n_unknown_\n");
+            for (int i = 2; i < labelCount; ++i) {
+                writer.write("word" + i + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        labelFile.delete();
+    }
+
+    @Benchmark
+    public String md5OfModelUrl() {
+        return Md5Utils.getMD5(MODEL_URL);
+    }
+
+    @Benchmark
+    public List<String> loadLabel() {
+        return LabelFileUtils.loadLabel(labelFile.getAbsolutePath());
+    }
+}
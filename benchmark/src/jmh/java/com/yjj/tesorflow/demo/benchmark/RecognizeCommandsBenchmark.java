@@ -0,0 +1,71 @@
+package com.yjj.tesorflow.demo.benchmark;
+
+import com.yjj.tesorflow.demo.RecognizeCommands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * created by yangjianjun on 2019/5/1
+ * RecognizeCommands 平滑耗时基准
+ * <p>
+ * Feeds one model output every 30 ms of simulated time, as the recognition loop does, so the
+ * averaging window stays full and every call exercises both adding and pruning results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecognizeCommandsBenchmark {
+    private static final int FRAME_COUNT = 256;
+    private static final long FRAME_INTERVAL_MS = 30;
+
+    @Param({ "12", "100", "500" })
+    public int labelCount;
+
+    @Param({ "500", "1000" })
+    public long averageWindowDurationMs;
+
+    private RecognizeCommands recognizeCommands;
+    private float[][] frames;
+    private int frameIndex;
+    private long timeMs;
+
+    @Setup
+    public void setUp() {
+        List<String> labels = new ArrayList<>(labelCount);
+        labels.add(RecognizeCommands.SILENCE_LABEL);
+        labels.add("_unknown_");
+        for (int i = labels.size(); i < labelCount; ++i) {
+            labels.add("word" + i);
+        }
+        recognizeCommands =
+            new RecognizeCommands(labels, averageWindowDurationMs, 0.5f, 1500, 3, FRAME_INTERVAL_MS);
+
+        Random random = new Random(42);
+        frames = new float[FRAME_COUNT][labelCount];
+        for (float[] frame : frames) {
+            for (int i = 0; i < labelCount; ++i) {
+                frame[i] = random.nextFloat() * 0.1f;
+            }
+            frame[random.nextInt(labelCount)] += 0.8f;
+        }
+    }
+
+    @Benchmark
+    public RecognizeCommands.RecognitionResult processLatestResults() {
+        timeMs += FRAME_INTERVAL_MS;
+        frameIndex = (frameIndex + 1) & (FRAME_COUNT - 1);
+        return recognizeCommands.processLatestResults(frames[frameIndex], timeMs);
+    }
+}